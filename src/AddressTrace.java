@@ -0,0 +1,47 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Address stream seen by Cache.read/write, packed as (address << 1) | isWrite
+public class AddressTrace {
+
+    private static final int MAGIC = 0x43365452; // "C6TR"
+    private int[] refs = new int[4096];
+    private int size = 0;
+
+    public void record(int address, boolean write) {
+        if (size == refs.length) refs = Arrays.copyOf(refs, size * 2);
+        refs[size++] = (address << 1) | (write ? 1 : 0);
+    }
+
+    public int size() { return size; }
+    public int addressAt(int k) { return refs[k] >>> 1; }
+    public boolean isWrite(int k) { return (refs[k] & 1) != 0; }
+    public void clear() { size = 0; }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(size);
+            for (int k = 0; k < size; k++) out.writeInt(refs[k]);
+        }
+    }
+
+    public static AddressTrace load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an address trace: " + file);
+            AddressTrace trace = new AddressTrace();
+            int n = in.readInt();
+            trace.refs = new int[Math.max(n, 1)];
+            for (int k = 0; k < n; k++) trace.refs[k] = in.readInt();
+            trace.size = n;
+            return trace;
+        }
+    }
+}
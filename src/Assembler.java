@@ -1,43 +1,91 @@
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Assembler {
 
-    private static final Map<String, Integer> symbolTable = new HashMap<>();
     private static final Map<String, Integer> opcodeTable = new HashMap<>();
+    private final Map<String, Integer> symbolTable = new HashMap<>();
+
+    // Relocatable (-c) mode: addresses are module-relative, IMPORT/EXPORT are honoured and every
+    // label reference becomes a relocation record for the Linker
+    private boolean relocatable = false;
+    private final Set<String> imports = new LinkedHashSet<>();
+    private final Set<String> exports = new LinkedHashSet<>();
+    private String resolvedSymbol; // label behind the last resolveValue call, null for literals
+    private int resolvedAddend;
+
+    static {
+        initializeOpcodeTable();
+    }
 
     public static void main(String[] args) {
-        if (args.length < 1) {
-            System.err.println("Usage: java Assembler <source_file.txt>");
-            return;
+        boolean optimize = false, relocatable = false;
+        String sourceFileName = null;
+        for (String arg : args) {
+            if (arg.equals("-O")) optimize = true;
+            else if (arg.equals("-c")) relocatable = true;
+            else if (sourceFileName == null) sourceFileName = arg;
+            else { printUsage(); return; } // one source file per run
         }
+        if (sourceFileName == null) { printUsage(); return; }
 
-        String sourceFileName = args[0];
         String listingFileName = sourceFileName.replace(".txt", "_listing.txt");
         String loadFileName = sourceFileName.replace(".txt", "_load.txt");
+        String debugFileName = sourceFileName.replace(".txt", "_debug.bin");
+        String objectFileName = sourceFileName.replace(".txt", ".obj");
 
-        initializeOpcodeTable();
-        symbolTable.clear();
+        Assembler assembler = new Assembler();
+        assembler.relocatable = relocatable;
 
         try {
+            List<String> sourceLines = readSourceLines(sourceFileName);
+
+            if (optimize) {
+                System.out.println("--- Running Peephole Optimizer ---");
+                PeepholeOptimizer optimizer = new PeepholeOptimizer(sourceLines);
+                sourceLines = optimizer.optimize();
+                String reportFileName = sourceFileName.replace(".txt", "_opt_report.txt");
+                optimizer.writeReport(reportFileName);
+                System.out.println(optimizer.getSummary());
+                System.out.println("=> Optimization Report: " + reportFileName + "\n");
+            }
+
             System.out.println("--- Starting Pass 1: Building Symbol Table ---");
-            performPass1(sourceFileName);
+            assembler.performPass1(sourceLines);
             System.out.println("Symbol Table constructed successfully.");
             System.out.println("--- Pass 1 Complete ---\n");
 
             System.out.println("--- Starting Pass 2: Generating Machine Code ---");
-            performPass2(sourceFileName, listingFileName, loadFileName);
+            if (relocatable) {
+                ObjectModule module = assembler.newModule(new File(sourceFileName));
+                assembler.performPass2(sourceLines, listingFileName, null, new ArrayList<>(), module);
+                module.write(new File(objectFileName));
+            } else {
+                List<int[]> debugEntries = new ArrayList<>();
+                assembler.performPass2(sourceLines, listingFileName, loadFileName, debugEntries, null);
+                DebugInfo.write(debugFileName, new File(sourceFileName).getName(), new File(loadFileName), sourceLines,
+                        debugEntries, assembler.symbolTable);
+            }
             System.out.println("--- Pass 2 Complete ---");
 
             System.out.println("\nAssembly successful!");
             System.out.println("=> Listing File: " + listingFileName);
-            System.out.println("=> Load File: " + loadFileName);
+            if (relocatable) {
+                System.out.println("=> Object File: " + objectFileName);
+            } else {
+                System.out.println("=> Load File: " + loadFileName);
+                System.out.println("=> Debug Info: " + debugFileName);
+            }
 
         } catch (IOException | IllegalArgumentException e) {
             System.err.println("An error occurred: " + e.getMessage());
@@ -45,6 +93,63 @@ public class Assembler {
         }
     }
 
+    private static void printUsage() {
+        System.err.println("Usage: java Assembler [-O] [-c] <source_file.txt>");
+    }
+
+    // Assemble one source file into a relocatable object without console output (used by the Linker)
+    public static ObjectModule assembleObject(File sourceFile, File objectFile) throws IOException {
+        Assembler assembler = new Assembler();
+        assembler.relocatable = true;
+        List<String> sourceLines = readSourceLines(sourceFile.getPath());
+        assembler.performPass1(sourceLines);
+        ObjectModule module = assembler.newModule(sourceFile);
+        assembler.performPass2(sourceLines, sourceFile.getPath().replace(".txt", "_listing.txt"),
+                null, new ArrayList<>(), module);
+        module.write(objectFile);
+        return module;
+    }
+
+    // Assemble one source file into an absolute load file without console output (used by Benchmark).
+    // The listing and debug sidecar are written next to the load file.
+    public static void assembleProgram(File sourceFile, File loadFile) throws IOException {
+        assembleProgram(sourceFile, loadFile, false);
+    }
+
+    // With optimize the source goes through the peephole pass first (like -O) and its report is
+    // written next to the load file too; returns the optimizer, or null without optimize
+    public static PeepholeOptimizer assembleProgram(File sourceFile, File loadFile, boolean optimize) throws IOException {
+        Assembler assembler = new Assembler();
+        List<String> sourceLines = readSourceLines(sourceFile.getPath());
+        String base = loadFile.getPath().replace("_load.txt", "");
+        PeepholeOptimizer optimizer = null;
+        if (optimize) {
+            optimizer = new PeepholeOptimizer(sourceLines);
+            sourceLines = optimizer.optimize();
+            optimizer.writeReport(base + "_opt_report.txt");
+        }
+        assembler.performPass1(sourceLines);
+        List<int[]> debugEntries = new ArrayList<>();
+        assembler.performPass2(sourceLines, base + "_listing.txt", loadFile.getPath(), debugEntries, null);
+        DebugInfo.write(DebugInfo.sidecarFor(loadFile).getPath(), sourceFile.getName(), loadFile, sourceLines,
+                debugEntries, assembler.symbolTable);
+        return optimizer;
+    }
+
+    private ObjectModule newModule(File sourceFile) throws IOException {
+        ObjectModule module = new ObjectModule();
+        module.name = sourceFile.getName().replace(".txt", "");
+        module.sourceHash = ObjectModule.hashSource(sourceFile);
+        for (String name : exports) {
+            if (!symbolTable.containsKey(name)) {
+                throw new IllegalArgumentException("EXPORT of undefined label: " + name);
+            }
+            module.exports.put(name, symbolTable.get(name));
+        }
+        module.imports.addAll(imports);
+        return module;
+    }
+
     // ------------------------------------------------------------
     // Opcode table
     // ------------------------------------------------------------
@@ -83,6 +188,14 @@ public class Assembler {
         opcodeTable.put("SRC", 31);
         opcodeTable.put("RRC", 32);
 
+        opcodeTable.put("FADD", 33);
+        opcodeTable.put("FSUB", 34);
+        opcodeTable.put("VADD", 35);
+        opcodeTable.put("VSUB", 36);
+        opcodeTable.put("CNVRT", 37);
+        opcodeTable.put("LDFR", 50);
+        opcodeTable.put("STFR", 51);
+
         opcodeTable.put("IN", 61);
         opcodeTable.put("OUT", 62);
         opcodeTable.put("CHK", 63);
@@ -94,14 +207,10 @@ public class Assembler {
     // ------------------------------------------------------------
     // Pass 1: build symbol table
     // ------------------------------------------------------------
-    private static void performPass1(String fileName) throws IOException {
-        File sourceFile = new File(fileName);
-        Scanner scanner = new Scanner(sourceFile);
-
+    private void performPass1(List<String> sourceLines) {
         int locationCounter = 0;
 
-        while (scanner.hasNextLine()) {
-            String raw = scanner.nextLine();
+        for (String raw : sourceLines) {
             String line = stripComments(raw).trim();
             if (line.isEmpty()) continue;
 
@@ -110,7 +219,7 @@ public class Assembler {
             Matcher labelMatcher = labelPattern.matcher(line);
             if (labelMatcher.find()) {
                 String label = labelMatcher.group(1);
-                if (symbolTable.containsKey(label)) {
+                if (symbolTable.containsKey(label) || imports.contains(label)) {
                     throw new IllegalArgumentException("Duplicate label: " + label);
                 }
                 symbolTable.put(label, locationCounter);
@@ -125,24 +234,45 @@ public class Assembler {
                         throw new IllegalArgumentException("LOC requires an address");
                     }
                     locationCounter = parseIntClean(parts[1].trim());
+                } else if (op.equals("IMPORT") || op.equals("EXPORT")) {
+                    if (!relocatable && op.equals("IMPORT")) {
+                        throw new IllegalArgumentException("IMPORT requires relocatable mode (-c)");
+                    }
+                    for (String name : splitOperands(parts.length > 1 ? parts[1] : "")) {
+                        if (op.equals("IMPORT")) {
+                            if (symbolTable.containsKey(name)) {
+                                throw new IllegalArgumentException("IMPORT of locally defined label: " + name);
+                            }
+                            imports.add(name);
+                        } else {
+                            exports.add(name);
+                        }
+                    }
                 } else {
                     locationCounter++;
                 }
             }
         }
-        scanner.close();
     }
 
     // ------------------------------------------------------------
     // Helpers
     // ------------------------------------------------------------
-    private static String stripComments(String line) {
+    private static List<String> readSourceLines(String fileName) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Scanner scanner = new Scanner(new File(fileName))) {
+            while (scanner.hasNextLine()) lines.add(scanner.nextLine());
+        }
+        return lines;
+    }
+
+    static String stripComments(String line) {
         int idx = line.indexOf(';');
         if (idx >= 0) return line.substring(0, idx);
         return line;
     }
 
-    private static boolean isInteger(String s) {
+    static boolean isInteger(String s) {
         if (s == null) return false;
         s = s.trim();
         if (s.isEmpty()) return false;
@@ -150,7 +280,7 @@ public class Assembler {
     }
 
     // Clean numeric string and parse as decimal
-    private static int parseIntClean(String s) {
+    static int parseIntClean(String s) {
         if (s == null) {
             throw new IllegalArgumentException("Null numeric operand");
         }
@@ -163,8 +293,9 @@ public class Assembler {
         return Integer.parseInt(cleaned);
     }
 
-    // Resolve label or numeric literal
-    private static int resolveValue(String operand) {
+    // Resolve label or numeric literal. In relocatable mode labels resolve to 0 and are
+    // recorded in resolvedSymbol/resolvedAddend so Pass 2 can emit a relocation instead.
+    private int resolveValue(String operand) {
         if (operand == null) {
             throw new IllegalArgumentException("Null operand");
         }
@@ -175,13 +306,21 @@ public class Assembler {
         }
 
         if (symbolTable.containsKey(cleaned)) {
-            return symbolTable.get(cleaned);
+            if (!relocatable) return symbolTable.get(cleaned);
+            resolvedSymbol = cleaned;
+            resolvedAddend = symbolTable.get(cleaned);
+            return 0;
+        }
+        if (imports.contains(cleaned)) {
+            resolvedSymbol = cleaned;
+            resolvedAddend = 0;
+            return 0;
         }
         return parseIntClean(cleaned);
     }
 
     // Split comma-separated operands, trimming and dropping empties
-    private static String[] splitOperands(String operandsStr) {
+    static String[] splitOperands(String operandsStr) {
         if (operandsStr == null || operandsStr.trim().isEmpty()) {
             return new String[0];
         }
@@ -195,22 +334,22 @@ public class Assembler {
     // ------------------------------------------------------------
     // Pass 2: generate machine code
     // ------------------------------------------------------------
-    private static void performPass2(String sourceFileName,
-                                     String listingFileName,
-                                     String loadFileName) throws IOException {
-
-        File sourceFile = new File(sourceFileName);
-        Scanner scanner = new Scanner(sourceFile);
+    // debugEntries receives {address, line, column, kind} for every emitted word.
+    // With a module (relocatable mode) words and relocations go there instead of a load file.
+    private void performPass2(List<String> sourceLines,
+                              String listingFileName,
+                              String loadFileName,
+                              List<int[]> debugEntries,
+                              ObjectModule module) throws IOException {
 
         FileWriter listingWriter = new FileWriter(listingFileName);
-        FileWriter loadWriter = new FileWriter(loadFileName);
+        FileWriter loadWriter = module == null ? new FileWriter(loadFileName) : null;
 
         int locationCounter = 0;
         int lineNumber = 0;
 
-        while (scanner.hasNextLine()) {
+        for (String originalLine : sourceLines) {
             lineNumber++;
-            String originalLine = scanner.nextLine();
             String line = stripComments(originalLine).trim();
 
             if (line.isEmpty()) {
@@ -250,6 +389,13 @@ public class Assembler {
                 continue;
             }
 
+            // IMPORT/EXPORT directives (handled in Pass 1)
+            if (operation.equals("IMPORT") || operation.equals("EXPORT")) {
+                listingWriter.write(String.format("\t\t\t%s\n", originalLine));
+                continue;
+            }
+
+            resolvedSymbol = null;
             int machineCode;
 
             if (operation.equals("DATA")) {
@@ -268,12 +414,14 @@ public class Assembler {
 
                 switch (operation) {
 
-                    // R,IX,ADDR[,I]  or R,ADDR or ADDR (for jumps & load/store)
+                    // R,IX,ADDR[,I]  or R,ADDR or ADDR (for jumps & load/store; R is FR for float/vector)
                     case "LDR": case "STR": case "LDA":
                     case "AMR": case "SMR":
                     case "JZ": case "JNE": case "JCC":
                     case "JMA": case "JSR": case "SOB":
                     case "JGE": case "BEQ":
+                    case "FADD": case "FSUB": case "VADD": case "VSUB":
+                    case "CNVRT": case "LDFR": case "STFR":
 
                         if (ops.length == 0) {
                             throw new IllegalArgumentException("Missing operands for " + operation +
@@ -301,6 +449,10 @@ public class Assembler {
                                 i = 0;
                             }
                         }
+                        if (r > 1 && opcode >= 33 && opcode != 37) {
+                            throw new IllegalArgumentException(operation + " names FR" + r
+                                    + "; only FR0 and FR1 exist, at line " + lineNumber);
+                        }
                         machineCode = (opcode << 10) | (r << 8) | (ix << 6) | (i << 5) | address;
                         break;
 
@@ -376,6 +528,12 @@ public class Assembler {
                         machineCode = (opcode << 10) | (r << 8) | (devid & 0x1F);
                         break;
 
+                    // RFS [Immed]: return code for R0
+                    case "RFS":
+                        immediate = ops.length >= 1 ? parseIntClean(ops[0]) : 0;
+                        machineCode = (opcode << 10) | (immediate & 0x1F);
+                        break;
+
                     // TRAP: TrapCode
                     case "TRAP":
                         if (ops.length < 1) {
@@ -396,13 +554,28 @@ public class Assembler {
             String octalAddress = String.format("%06o", locationCounter);
             String octalContent = String.format("%06o", machineCode & 0xFFFF);
             listingWriter.write(String.format("%s\t%s\t%s\n", octalAddress, octalContent, originalLine));
-            loadWriter.write(String.format("%s %s\n", octalAddress, octalContent));
+            if (module == null) {
+                loadWriter.write(String.format("%s %s\n", octalAddress, octalContent));
+            } else {
+                module.words.add(new int[]{locationCounter, machineCode & 0xFFFF});
+                module.size = Math.max(module.size, locationCounter + 1);
+                if (module.entry < 0) module.entry = locationCounter;
+                if (resolvedSymbol != null) {
+                    boolean imported = imports.contains(resolvedSymbol);
+                    module.relocations.add(new ObjectModule.Relocation(locationCounter, operation.equals("DATA"),
+                            resolvedAddend, imported ? resolvedSymbol : null));
+                }
+            }
+
+            int labelEnd = labelPart.isEmpty() ? 0 : originalLine.indexOf(labelPart) + labelPart.length();
+            int column = originalLine.indexOf(parts[0], labelEnd) + 1;
+            debugEntries.add(new int[]{locationCounter, lineNumber, column,
+                    operation.equals("DATA") ? DebugInfo.KIND_DATA : DebugInfo.KIND_CODE});
 
             locationCounter++;
         }
 
-        scanner.close();
         listingWriter.close();
-        loadWriter.close();
+        if (loadWriter != null) loadWriter.close();
     }
 }
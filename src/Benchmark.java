@@ -0,0 +1,378 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Scanner;
+
+// Guest-program benchmark suite: assembles every program in the benchmark directory, runs it
+// headlessly, checks it against its golden output and reports host MIPS.
+//
+//   java Benchmark [dir] [--save-baseline] [--fail-on-regression] [--tolerance pct] [--tlb entries] [name ...]
+//
+// For each <name>.txt with a <name>.expected next to it:
+//   <name>.out       golden printer output (exact text; missing = nothing printed)
+//   <name>.expected  one entry per line, ';' comments, values in octal like the load file:
+//                      INPUT v ...     keyboard values (decimal, or a single character)
+//                      FILE path       Device 2 input, relative to the benchmark directory
+//                      MAX n           instruction limit
+//                      OPTIMIZE r w k  also assemble with -O, expecting r statements removed, w rewritten
+//                                      and k kept (decimal counts)
+//                      R0..R3, X1..X3, PC, CC, MFR, FR0, FR1 <value>
+//                      MEM <address> <value>
+// A program must halt within its limit and match every check; that is the pass/fail gate.
+// With OPTIMIZE both builds must pass, and their final registers (PC aside, as -O moves code) must
+// agree; the -O build is the one timed.
+// Instruction counts and cache hit rates are deterministic. Host MIPS is the best of several
+// samples taken after a one-second warm-up; a sample reruns the program on freshly loaded machines
+// until at least SAMPLE_NANOS of run time has passed, so short programs are timed over many runs.
+// MIPS is compared with baseline.txt, which --save-baseline records on this machine. The file is
+// host-specific and not under version control; a baseline from another host is not compared. A
+// drop of more than the tolerance (default 20%) is reported as a regression.
+// --tlb sets the TLB size for programs that turn on virtual memory, to study its effect on run time.
+// Exit status: 1 if any program failed its checks; 2 with --fail-on-regression if one regressed; else 0.
+public class Benchmark {
+
+    private static final long DEFAULT_MAX_INSTRUCTIONS = 100_000_000L;
+    private static final double DEFAULT_TOLERANCE = 20.0;
+    private static final int SAMPLES = 5;
+    private static final long SAMPLE_NANOS = 100_000_000L;
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final String BASELINE = "baseline.txt";
+    private static final List<String> REGISTERS =
+            Arrays.asList("R0", "R1", "R2", "R3", "X1", "X2", "X3", "PC", "CC", "MFR", "FR0", "FR1");
+
+    private static int tlbEntries = VirtualMemory.DEFAULT_TLB_ENTRIES;
+
+    private static final class Spec {
+        String name;
+        File source, golden, deviceFile;
+        final List<Integer> input = new ArrayList<>();
+        long max = DEFAULT_MAX_INSTRUCTIONS;
+        int[] optimize; // expected removed, rewritten, kept; null = plain build only
+        final Map<String, Integer> registers = new LinkedHashMap<>();
+        final Map<Integer, Integer> memory = new LinkedHashMap<>();
+    }
+
+    private static final class Result {
+        final String name;
+        final List<String> failures = new ArrayList<>();
+        long instructions;
+        double hitRate, tlbHitRate = -1, mips;
+        String note; // extra line under the result
+        Result(String name) { this.name = name; }
+    }
+
+    // Headless keyboard (Device 0) and printer (Device 1)
+    private static final class Console implements IODevices {
+        private final Queue<Integer> keyboard;
+        final StringBuilder printer = new StringBuilder();
+        private boolean waiting;
+
+        Console(List<Integer> input) { keyboard = new ArrayDeque<>(input); }
+
+        @Override public int readFromDevice(int devId) {
+            if (devId != 0) return 0;
+            if (keyboard.isEmpty()) { waiting = true; return 0; }
+            return keyboard.poll();
+        }
+
+        @Override public void writeToDevice(int devId, int val) {
+            if (devId == 1) printer.append((char) val);
+        }
+
+        @Override public boolean isWaitingForInput() { return waiting; }
+    }
+
+    // ------------------------------------------------------------
+    // Benchmark specs
+    // ------------------------------------------------------------
+    private static Spec readSpec(File dir, String name) throws IOException {
+        Spec spec = new Spec();
+        spec.name = name;
+        spec.source = new File(dir, name + ".txt");
+        spec.golden = new File(dir, name + ".out");
+        File expected = new File(dir, name + ".expected");
+        try (Scanner s = new Scanner(expected)) {
+            int lineNumber = 0;
+            while (s.hasNextLine()) {
+                lineNumber++;
+                String line = Assembler.stripComments(s.nextLine()).trim();
+                if (line.isEmpty()) continue;
+                String[] p = line.split("\\s+");
+                String key = p[0].toUpperCase();
+                try {
+                    switch (key) {
+                        case "INPUT":
+                            for (int k = 1; k < p.length; k++) {
+                                spec.input.add(p[k].matches("-?\\d+") ? Integer.parseInt(p[k]) & 0xFFFF : (int) p[k].charAt(0));
+                            }
+                            break;
+                        case "FILE": spec.deviceFile = new File(dir, p[1]); break;
+                        case "MAX": spec.max = Long.parseLong(p[1]); break;
+                        case "OPTIMIZE":
+                            spec.optimize = new int[]{Integer.parseInt(p[1]), Integer.parseInt(p[2]), Integer.parseInt(p[3])};
+                            break;
+                        case "MEM": spec.memory.put(Integer.parseInt(p[1], 8), Integer.parseInt(p[2], 8)); break;
+                        default:
+                            if (!REGISTERS.contains(key)) throw new IllegalArgumentException("unknown entry " + p[0]);
+                            spec.registers.put(key, Integer.parseInt(p[1], 8));
+                    }
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException(expected.getName() + " line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        return spec;
+    }
+
+    private static int registerValue(CPU cpu, String name) {
+        switch (name) {
+            case "R0": case "R1": case "R2": case "R3": return cpu.getGPR(name.charAt(1) - '0');
+            case "X1": case "X2": case "X3": return cpu.getIXR(name.charAt(1) - '0');
+            case "FR0": case "FR1": return cpu.getFR(name.charAt(2) - '0');
+            case "PC": return cpu.PC;
+            case "CC": return cpu.CC;
+            default: return cpu.MFR;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Running
+    // ------------------------------------------------------------
+    private static CPU boot(Spec spec, File loadFile, Console console) throws IOException {
+        CPU cpu = new CPU();
+        cpu.setDevices(console);
+        cpu.vm.setTlbEntries(tlbEntries);
+        cpu.loadProgram(loadFile);
+        if (spec.deviceFile != null) cpu.fileReader.open(spec.deviceFile);
+        return cpu;
+    }
+
+    private static Result run(Spec spec, File workDir) throws IOException {
+        Result result = new Result(spec.name);
+        File loadFile = new File(workDir, spec.name + "_load.txt");
+        File plainFile = new File(workDir, spec.name + "_plain_load.txt");
+        PeepholeOptimizer optimizer = null;
+        try {
+            if (spec.optimize == null) {
+                Assembler.assembleProgram(spec.source, loadFile);
+            } else {
+                Assembler.assembleProgram(spec.source, plainFile);
+                optimizer = Assembler.assembleProgram(spec.source, loadFile, true);
+            }
+        } catch (IllegalArgumentException e) {
+            result.failures.add("assembly failed: " + e.getMessage());
+            return result;
+        }
+
+        CPU cpu = check(spec, loadFile, result, optimizer == null ? "" : "-O: ");
+        if (optimizer != null) {
+            int[] counts = {optimizer.getRemovedCount(), optimizer.getRewrittenCount(), optimizer.getKeptCount()};
+            if (!Arrays.equals(counts, spec.optimize)) {
+                result.failures.add(String.format("-O: %d removed, %d rewritten, %d kept; expected %d, %d, %d",
+                        counts[0], counts[1], counts[2], spec.optimize[0], spec.optimize[1], spec.optimize[2]));
+            }
+            Result plain = new Result(spec.name);
+            CPU plainCpu = check(spec, plainFile, plain, "without -O: ");
+            result.failures.addAll(plain.failures);
+            for (String reg : REGISTERS) {
+                int optimized = registerValue(cpu, reg), unoptimized = registerValue(plainCpu, reg);
+                if (!reg.equals("PC") && optimized != unoptimized) {
+                    result.failures.add(String.format("-O: %s = %06o, %06o without -O", reg, optimized, unoptimized));
+                }
+            }
+            result.note = String.format("%s; %d instructions without -O", optimizer.getSummary(), plain.instructions);
+        }
+        if (!result.failures.isEmpty()) return result;
+
+        // Warm up (JIT compilation), then the fastest of SAMPLES timed samples: interference from
+        // the host only ever slows a sample down
+        sample(spec, loadFile, WARMUP_NANOS);
+        for (int k = 0; k < SAMPLES; k++) result.mips = Math.max(result.mips, sample(spec, loadFile, SAMPLE_NANOS));
+        return result;
+    }
+
+    // One checked run: fills in the counts and hit rates and adds a failure, prefixed with build, for
+    // every check the program misses. Returns the halted machine for further comparison.
+    private static CPU check(Spec spec, File loadFile, Result result, String build) throws IOException {
+        Console console = new Console(spec.input);
+        CPU cpu = boot(spec, loadFile, console);
+        result.instructions = cpu.run(spec.max);
+        long references = cpu.cache.getHits() + cpu.cache.getMisses();
+        result.hitRate = references == 0 ? 0 : (double) cpu.cache.getHits() / references;
+        long translations = cpu.vm.getTlbHits() + cpu.vm.getTlbMisses();
+        if (translations > 0) result.tlbHitRate = (double) cpu.vm.getTlbHits() / translations;
+        cpu.close();
+
+        List<String> failures = new ArrayList<>();
+        if (cpu.MFR != 0) failures.add(String.format("fault %d at PC %06o", cpu.MFR, cpu.memory[2]));
+        else if (console.isWaitingForInput()) failures.add("waiting for keyboard input");
+        else if (result.instructions >= spec.max) failures.add("did not halt within " + spec.max + " instructions");
+
+        String expectedOutput = spec.golden.isFile() ? new String(Files.readAllBytes(spec.golden.toPath())) : "";
+        String output = console.printer.toString();
+        if (!output.equals(expectedOutput)) {
+            int at = 0;
+            while (at < output.length() && at < expectedOutput.length() && output.charAt(at) == expectedOutput.charAt(at)) at++;
+            failures.add(String.format("printer output differs at character %d (%d printed, %d expected)",
+                    at, output.length(), expectedOutput.length()));
+        }
+        spec.registers.forEach((reg, expected) -> {
+            int actual = registerValue(cpu, reg);
+            if (actual != expected) failures.add(String.format("%s = %06o, expected %06o", reg, actual, expected));
+        });
+        spec.memory.forEach((addr, expected) -> {
+            int actual = cpu.peekMemory(addr);
+            if (actual != expected) failures.add(String.format("memory[%06o] = %06o, expected %06o", addr, actual, expected));
+        });
+        for (String f : failures) result.failures.add(build + f);
+        return cpu;
+    }
+
+    // MIPS over back-to-back runs totalling at least minNanos; load time is excluded
+    private static double sample(Spec spec, File loadFile, long minNanos) throws IOException {
+        long instructions = 0, elapsed = 0;
+        while (elapsed < minNanos) {
+            CPU cpu = boot(spec, loadFile, new Console(spec.input));
+            long start = System.nanoTime();
+            instructions += cpu.run(spec.max);
+            elapsed += System.nanoTime() - start;
+            cpu.close();
+        }
+        return instructions * 1e3 / elapsed;
+    }
+
+    // ------------------------------------------------------------
+    // Baseline: "host <id>" line, then name instructions hitRate mips
+    // ------------------------------------------------------------
+    // Machine and JVM the MIPS figures were measured on
+    private static String hostId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "unknown";
+        }
+        return host + " " + System.getProperty("os.arch") + " " + Runtime.getRuntime().availableProcessors()
+                + "cpu java-" + System.getProperty("java.version");
+    }
+
+    // Empty when there is no baseline or it was recorded on another host
+    private static Map<String, double[]> readBaseline(File file) throws IOException {
+        Map<String, double[]> baseline = new LinkedHashMap<>();
+        if (!file.isFile()) return baseline;
+        String host = null;
+        try (Scanner s = new Scanner(file)) {
+            while (s.hasNextLine()) {
+                String line = s.nextLine().trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                if (line.startsWith("host ")) { host = line.substring(5).trim(); continue; }
+                String[] p = line.split("\\s+");
+                baseline.put(p[0], new double[]{Long.parseLong(p[1]), Double.parseDouble(p[2]), Double.parseDouble(p[3])});
+            }
+        }
+        if (!hostId().equals(host)) {
+            System.out.println("Ignoring " + file + ": recorded on " + (host == null ? "an unknown host" : host)
+                    + "; run with --save-baseline to record one here");
+            baseline.clear();
+        }
+        return baseline;
+    }
+
+    private static void writeBaseline(File file, List<Result> results) throws IOException {
+        try (FileWriter w = new FileWriter(file)) {
+            w.write("# Benchmark baseline: name instructions hitRate hostMIPS\n");
+            w.write("# Host MIPS is machine-specific; regenerate with: java Benchmark --save-baseline\n");
+            w.write("host " + hostId() + "\n");
+            for (Result r : results) {
+                if (r.failures.isEmpty()) w.write(String.format("%s %d %.6f %.2f\n", r.name, r.instructions, r.hitRate, r.mips));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File("benchmarks");
+        boolean saveBaseline = false, failOnRegression = false;
+        double tolerance = DEFAULT_TOLERANCE;
+        List<String> only = new ArrayList<>();
+        for (int k = 0; k < args.length; k++) {
+            switch (args[k]) {
+                case "--save-baseline": saveBaseline = true; break;
+                case "--fail-on-regression": failOnRegression = true; break;
+                case "--tolerance": tolerance = Double.parseDouble(args[++k]); break;
+                case "--tlb": tlbEntries = Integer.parseInt(args[++k]); break;
+                default:
+                    if (new File(args[k]).isDirectory()) dir = new File(args[k]);
+                    else only.add(args[k]);
+            }
+        }
+        String[] names = dir.list((d, n) -> n.endsWith(".expected"));
+        if (names == null || names.length == 0) {
+            System.err.println("Usage: java Benchmark [dir] [--save-baseline] [--fail-on-regression] [--tolerance pct]"
+                    + " [--tlb entries] [name ...]");
+            System.err.println("No <name>.expected files found in " + dir);
+            return;
+        }
+        Arrays.sort(names);
+
+        File workDir = Files.createTempDirectory("c6461-bench").toFile();
+        Map<String, double[]> baseline = readBaseline(new File(dir, BASELINE));
+        List<Result> results = new ArrayList<>();
+        int failed = 0, regressed = 0;
+
+        System.out.printf("%-12s %-6s %14s %9s %9s %10s   %s%n", "Benchmark", "Result", "Instructions", "Hit rate", "TLB hit", "Host MIPS", "vs baseline");
+        try {
+            for (String file : names) {
+                String name = file.substring(0, file.length() - ".expected".length());
+                if (!only.isEmpty() && !only.contains(name)) continue;
+                Result r;
+                try {
+                    r = run(readSpec(dir, name), workDir);
+                } catch (IllegalArgumentException e) {
+                    r = new Result(name);
+                    r.failures.add(e.getMessage());
+                }
+                results.add(r);
+                if (!r.failures.isEmpty()) {
+                    failed++;
+                    System.out.printf("%-12s FAIL%n", r.name);
+                    for (String f : r.failures) System.out.println("    " + f);
+                    continue;
+                }
+
+                String comparison = "";
+                double[] base = baseline.get(r.name);
+                if (base != null) {
+                    double change = 100.0 * (r.mips - base[2]) / base[2];
+                    comparison = String.format("%+.1f%% MIPS", change);
+                    if (change < -tolerance) { comparison += "  REGRESSION"; regressed++; }
+                    if (r.instructions != (long) base[0]) comparison += String.format("  instructions were %d", (long) base[0]);
+                    if (Math.abs(r.hitRate - base[1]) > 1e-6) comparison += String.format("  hit rate was %.2f%%", 100 * base[1]);
+                }
+                System.out.printf("%-12s %-6s %14d %8.2f%% %9s %10.2f   %s%n", r.name, "PASS", r.instructions,
+                        100 * r.hitRate, r.tlbHitRate < 0 ? "-" : String.format("%.2f%%", 100 * r.tlbHitRate), r.mips, comparison);
+                if (r.note != null) System.out.println("    " + r.note);
+            }
+        } finally {
+            File[] leftovers = workDir.listFiles();
+            if (leftovers != null) for (File f : leftovers) f.delete();
+            workDir.delete();
+        }
+
+        System.out.printf("%n%d passed, %d failed, %d regressed%n", results.size() - failed, failed, regressed);
+        if (saveBaseline) {
+            writeBaseline(new File(dir, BASELINE), results);
+            System.out.println("=> Baseline: " + new File(dir, BASELINE));
+        }
+        if (failed > 0) System.exit(1);
+        if (regressed > 0 && failOnRegression) System.exit(2);
+    }
+}
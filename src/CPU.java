@@ -1,25 +1,131 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Scanner;
+
 public class CPU {
     // --- Registers ---
     public int PC, IR, MAR, MBR, MFR, CC;
     private final int[] gpr = new int[4];
     private final int[] ixr = new int[4];
+    private final int[] fr = new int[2];
 
     public final int[] memory = new int[2048];
     public final Cache cache;
-    public SimulatorGUI gui;
+    public final DmaController dma = new DmaController(this);
+    public final VirtualMemory vm = new VirtualMemory(this); // Device 4, off until the guest enables it
+    public final FileReaderDevice fileReader = new FileReaderDevice(); // Device 2, kept open across reset
+    public IODevices devices; // keyboard and printer; null runs without them
+    public DebugInfo debugInfo; // from the assembler's _debug.bin sidecar, null if none
+
+    // Plain field on purpose: read by gauges and the periodic JFR MIPS sample, never per-instruction events
+    public long instructionCount;
+    public final SimMetrics metrics = new SimMetrics();
+
+    private int instructionPC; // address of the executing instruction, saved for restartable memory faults
+    private boolean faulted;
+
+    // Words written since the GUI last drained them, so the memory view repaints only changed rows
+    private final BitSet dirtyWords = new BitSet(2048);
 
     public CPU() {
         this.cache = new Cache(this);
         reset();
+        metrics.gauge("cpu.instructions", () -> instructionCount);
+        metrics.gauge("cache.hits", cache::getHits);
+        metrics.gauge("cache.misses", cache::getMisses);
+        metrics.gauge("cache.hitRate", () -> {
+            long total = cache.getHits() + cache.getMisses();
+            return total == 0 ? 0 : (double) cache.getHits() / total;
+        });
+        metrics.gauge("vm.tlbHits", vm::getTlbHits);
+        metrics.gauge("vm.tlbMisses", vm::getTlbMisses);
+        metrics.gauge("vm.tlbHitRate", () -> {
+            long total = vm.getTlbHits() + vm.getTlbMisses();
+            return total == 0 ? 0 : (double) vm.getTlbHits() / total;
+        });
+        SimEvents.watch(this);
     }
 
-    public void setGUI(SimulatorGUI gui) { this.gui = gui; }
+    public void setDevices(IODevices devices) { this.devices = devices; }
+
+    // Release host resources: the Device 2 file and the paging backing store (a temporary file is
+    // deleted). The CPU stays usable; both are reopened on demand.
+    public void close() {
+        fileReader.close();
+        try {
+            vm.close();
+        } catch (IOException e) {
+            System.err.println("Backing store: " + e.getMessage());
+        }
+    }
 
     public void reset() {
         PC = 0; IR = 0; MAR = 0; MBR = 0; MFR = 0; CC = 0;
         for (int i=0; i<4; i++) { gpr[i] = 0; ixr[i] = 0; }
+        fr[0] = 0; fr[1] = 0;
         for (int i=0; i<memory.length; i++) memory[i] = 0;
+        synchronized (dirtyWords) { dirtyWords.set(0, memory.length); }
         cache.reset();
+        dma.reset();
+        vm.reset();
+    }
+
+    // Load an octal "address value" image (the assembler's _load.txt); PC starts at the first word.
+    // A matching _debug.bin next to it is picked up for symbolized views; an unreadable or stale one
+    // is ignored with a warning so it never blocks the load.
+    public void loadProgram(File file) throws IOException {
+        SimEvents.Ipl event = new SimEvents.Ipl();
+        event.begin();
+        File sidecar = DebugInfo.sidecarFor(file);
+        debugInfo = null;
+        if (sidecar.isFile()) {
+            try {
+                debugInfo = DebugInfo.load(sidecar, file);
+            } catch (IOException | RuntimeException e) {
+                String why = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                System.err.println("Ignoring debug info " + sidecar.getName() + ": " + why);
+            }
+        }
+        int words = 0;
+        try (Scanner s = new Scanner(file)) {
+            boolean first = true;
+            while (s.hasNextLine()) {
+                String line = s.nextLine().trim();
+                if (line.isEmpty()) continue;
+                String[] p = line.split("\\s+");
+                if (p.length == 2) {
+                    int addr = Integer.parseInt(p[0], 8);
+                    int val = Integer.parseInt(p[1], 8);
+                    writeToMemory(addr, val);
+                    words++;
+                    if (first) { PC = addr; first = false; }
+                }
+            }
+        }
+        metrics.counter("cpu.ipl").increment();
+        event.program = file.getName();
+        event.words = words;
+        event.commit();
+    }
+
+    // Headless run until HLT, a fault, a device waiting for input, or maxInstructions; returns the number executed
+    public long run(long maxInstructions) {
+        SimEvents.Run event = new SimEvents.Run();
+        event.begin();
+        event.startPC = PC;
+        long executed = 0;
+        boolean cont = true;
+        boolean waiting = false;
+        while (executed < maxInstructions && MFR == 0 && cont && !waiting) {
+            cont = executeInstruction();
+            executed++;
+            waiting = devices != null && devices.isWaitingForInput();
+        }
+        event.instructions = executed;
+        event.stopReason = MFR != 0 ? "fault " + MFR : !cont ? "halt" : waiting ? "input" : "limit";
+        event.commit();
+        return executed;
     }
 
     // Accessors
@@ -27,10 +133,22 @@ public class CPU {
     public void setGPR(int i, int v) { gpr[i] = v & 0xFFFF; }
     public int getIXR(int i) { return ixr[i]; }
     public void setIXR(int i, int v) { if (i>0 && i<4) ixr[i] = v & 0xFFFF; }
+    public int getFR(int i) { return fr[i]; }
+    public void setFR(int i, int v) { fr[i & 1] = v & 0xFFFF; }
 
     // Memory / Cache / Helper methods
-    public int readMemory(int addr) { return cache.read(addr); }
-    public void writeMemory(int addr, int val) { cache.write(addr, val); }
+    // Guest accesses; translated when virtual memory is on. Once the current instruction has
+    // faulted they do nothing, so it cannot touch memory (or page) through a bogus address.
+    public int readMemory(int addr) {
+        if (faulted) return 0;
+        if (vm.isEnabled() && (addr = vm.translate(addr, false)) < 0) return 0;
+        return cache.read(addr);
+    }
+    public void writeMemory(int addr, int val) {
+        if (faulted) return;
+        if (vm.isEnabled() && (addr = vm.translate(addr, true)) < 0) return;
+        cache.write(addr, val);
+    }
     public int fetchFromMemory(int addr) {
         if (addr < 0 || addr >= memory.length) { triggerFault(1); return 0; } // Illegal Address Fault
         MAR = addr; MBR = memory[addr]; return MBR;
@@ -38,6 +156,40 @@ public class CPU {
     public void writeToMemory(int addr, int val) {
         if (addr < 0 || addr >= memory.length) { triggerFault(1); return; } // Illegal Address Fault
         MAR = addr; MBR = val & 0xFFFF; memory[addr] = MBR;
+        markDirty(addr);
+    }
+    // Side-effect-free read for viewers: bypasses the cache and leaves MAR/MBR untouched
+    public int peekMemory(int addr) {
+        return (addr < 0 || addr >= memory.length) ? 0 : memory[addr];
+    }
+    // Debugger write: physical, no MAR/MBR, cache statistics or trace; a cached copy is refreshed
+    public void pokeMemory(int addr, int val) {
+        if (addr >= 0 && addr < memory.length) storeWord(addr, val);
+    }
+    // Bulk store for devices (DMA): one copy into memory, then resident cache lines are refreshed
+    public void storeBlock(int addr, int[] words, int n) {
+        System.arraycopy(words, 0, memory, addr, n);
+        markDirtyRange(addr, addr + n);
+        cache.refreshRange(addr, addr + n);
+    }
+    // Single-word store for the MMU (page-table updates), same bookkeeping as storeBlock
+    public void storeWord(int addr, int val) {
+        memory[addr] = val & 0xFFFF;
+        markDirty(addr);
+        cache.refreshRange(addr, addr + 1);
+    }
+    // Block read from an input device; returns the number of words supplied (0 = nothing available)
+    public int readBlockFromDevice(int devId, int[] buf, int max) {
+        return devId == 2 ? fileReader.readBlock(buf, max) : 0;
+    }
+    private void markDirty(int addr) { synchronized (dirtyWords) { dirtyWords.set(addr); } }
+    private void markDirtyRange(int from, int to) { synchronized (dirtyWords) { dirtyWords.set(from, to); } }
+    public BitSet drainDirtyWords() {
+        synchronized (dirtyWords) {
+            BitSet drained = (BitSet) dirtyWords.clone();
+            dirtyWords.clear();
+            return drained;
+        }
     }
     public int calculateEffectiveAddress(int addr, int ix, int i) {
         int ea = addr;
@@ -48,18 +200,84 @@ public class CPU {
     private void setCC(int bit, boolean val) { if (val) CC |= (1<<bit); else CC &= ~(1<<bit); }
     private boolean getCC(int bit) { return (CC & (1<<bit)) != 0; }
 
+    // --- FLOATING POINT & VECTOR HELPERS ---
+    // 16-bit float: sign (bit 15), exponent (bits 14-8, bias 63), mantissa (bits 7-0) with an
+    // implied leading 1, i.e. (-1)^S * 1.M * 2^(E-63). All zero bits is 0.0, so 2^-63 itself (E=0,
+    // M=0) is not representable; there are no denormals.
+    public static double floatToDouble(int bits) {
+        bits &= 0xFFFF;
+        if ((bits & 0x7FFF) == 0) return 0.0;
+        int exp = (bits >> 8) & 0x7F;
+        double value = (1.0 + (bits & 0xFF) / 256.0) * Math.pow(2, exp - 63);
+        return (bits & 0x8000) != 0 ? -value : value;
+    }
+
+    // Round to the 16-bit format; sets CC(0) on overflow (saturates) and CC(1) on underflow (flushes to 0).
+    // Underflow is anything that rounds below the smallest encodable magnitude, (1 + 1/256) * 2^-63.
+    private int doubleToFloat(double v) {
+        if (v == 0.0 || Double.isNaN(v)) return 0;
+        int sign = v < 0 ? 0x8000 : 0;
+        double a = Math.abs(v);
+        int exp = Math.getExponent(a);
+        long mant = Math.round((a / Math.scalb(1.0, exp) - 1.0) * 256);
+        if (mant == 256) { mant = 0; exp++; }
+        int biased = exp + 63;
+        if (biased > 0x7F) { setCC(0, true); return sign | 0x7FFF; }
+        if (biased < 0 || (biased == 0 && mant == 0)) { setCC(1, true); return 0; }
+        return sign | (biased << 8) | (int) mant;
+    }
+
+    // VADD/VSUB: V1[k] = V1[k] +/- V2[k] for k < n, done as bulk array operations on memory[].
+    // V2 is copied out first so overlapping vectors behave as if all reads precede all writes.
+    private void vectorOp(int n, int v1, int v2, boolean subtract) {
+        if (n <= 0 || faulted) return;
+        if (vm.isEnabled()) {
+            // Element by element so every access is translated and may page. All reads, then a
+            // write check of every destination, then the stores: a fault leaves V1 untouched.
+            int[] lhs = new int[n], rhs = new int[n];
+            for (int k = 0; k < n && !faulted; k++) { rhs[k] = readMemory(v2 + k); lhs[k] = readMemory(v1 + k); }
+            for (int k = 0; k < n && !faulted; k++) vm.translate(v1 + k, true);
+            for (int k = 0; k < n && !faulted; k++) writeMemory(v1 + k, lhs[k] + (subtract ? -rhs[k] : rhs[k]));
+            return;
+        }
+        if (v1 < 0 || v2 < 0 || v1 + n > memory.length || v2 + n > memory.length) { triggerFault(1); return; }
+        int[] rhs = new int[n];
+        System.arraycopy(memory, v2, rhs, 0, n);
+        if (subtract) for (int k = 0; k < n; k++) rhs[k] = -rhs[k];
+        for (int k = 0; k < n; k++) memory[v1 + k] = (memory[v1 + k] + rhs[k]) & 0xFFFF;
+        markDirtyRange(v1, v1 + n);
+        cache.refreshRange(v1, v1 + n);
+    }
+
     // --- FAULT & TRAP LOGIC ---
+    // Virtual-memory fault: faulting address in memory[3]; memory[2] holds the faulting
+    // instruction rather than the next one. Like every fault it halts the machine; a debugger can
+    // fix the page table, clear MFR and resume at memory[2]
+    public void memoryFault(int faultCode, int addr) {
+        triggerFault(faultCode);
+        storeWord(2, instructionPC);
+        storeWord(3, addr);
+    }
+
     private void triggerFault(int faultCode) {
+        faulted = true;
+        metrics.counter("cpu.faults").increment();
+        SimEvents.fault(faultCode, PC);
         MFR = faultCode;
         // Trap to location 1 for faults (simple implementation)
-        // Store PC to location 2 (optional, but good practice)
-        memory[2] = PC;
+        // Store PC to location 2 (optional, but good practice); storeWord keeps a cached copy current
+        storeWord(2, PC);
         PC = 1;
     }
 
     public boolean executeInstruction() {
-        if (PC < 0 || PC >= memory.length) { triggerFault(1); return false; }
+        if (PC < 0 || PC >= (vm.isEnabled() ? VirtualMemory.VIRTUAL_WORDS : memory.length)) { triggerFault(1); return false; }
+        instructionCount++;
+        if (dma.isBusy()) dma.step();
+        instructionPC = PC;
+        faulted = false;
         IR = readMemory(PC);
+        if (faulted) return false;
         PC++;
 
         int opcode = (IR >> 10) & 0b111111;
@@ -75,21 +293,27 @@ public class CPU {
         int ea, r_val, ea_val;
         long result;
 
+        // Floating-point instructions name FR0 or FR1; r = 2 or 3 is an illegal encoding
+        if (r > 1 && ((opcode >= 33 && opcode <= 36) || opcode == 50 || opcode == 51)) { triggerFault(4); return false; }
+
         switch (opcode) {
             case 0: return false; // HLT
-            case 1: ea = calculateEffectiveAddress(address, ix, i); setGPR(r, readMemory(ea)); break; // LDR
+            // A faulting instruction writes no register, so it can be restarted at memory[2]
+            case 1: ea = calculateEffectiveAddress(address, ix, i); ea_val = readMemory(ea); if (!faulted) setGPR(r, ea_val); break; // LDR
             case 2: ea = calculateEffectiveAddress(address, ix, i); writeMemory(ea, getGPR(r)); break; // STR
-            case 3: ea = calculateEffectiveAddress(address, ix, i); setGPR(r, ea); break; // LDA
-            case 41: ea = calculateEffectiveAddress(address, 0, i); setIXR(ix, readMemory(ea)); break; // LDX
+            case 3: ea = calculateEffectiveAddress(address, ix, i); if (!faulted) setGPR(r, ea); break; // LDA
+            case 41: ea = calculateEffectiveAddress(address, 0, i); ea_val = readMemory(ea); if (!faulted) setIXR(ix, ea_val); break; // LDX
             case 42: ea = calculateEffectiveAddress(address, 0, i); writeMemory(ea, getIXR(ix)); break; // STX
 
             // Arithmetic
             case 4: // AMR
                 r_val = getGPR(r); ea = calculateEffectiveAddress(address, ix, i); ea_val = readMemory(ea);
+                if (faulted) break;
                 result = (long)(short)r_val + (long)(short)ea_val;
                 setGPR(r, (int)result); setCC(0, result > 32767 || result < -32768); break;
             case 5: // SMR
                 r_val = getGPR(r); ea = calculateEffectiveAddress(address, ix, i); ea_val = readMemory(ea);
+                if (faulted) break;
                 result = (long)(short)r_val - (long)(short)ea_val;
                 setGPR(r, (int)result); setCC(1, result < -32768); break;
             case 6: // AIR
@@ -111,8 +335,9 @@ public class CPU {
                 if(rx!=0 && rx!=2) break;
                 if(getGPR(ry) == 0) { setCC(2, true); break; }
                 setCC(2, false);
-                setGPR(rx, (short)getGPR(rx) / (short)getGPR(ry));
-                setGPR(rx+1, (short)getGPR(rx) % (short)getGPR(ry)); break;
+                r_val = (short)getGPR(rx); ea_val = (short)getGPR(ry);
+                setGPR(rx, r_val / ea_val);
+                setGPR(rx+1, r_val % ea_val); break;
             case 22: setCC(3, getGPR(rx) == getGPR(ry)); break; // TRR
             case 23: setGPR(rx, getGPR(rx) & getGPR(ry)); break; // AND
             case 24: setGPR(rx, getGPR(rx) | getGPR(ry)); break; // ORR
@@ -135,27 +360,60 @@ public class CPU {
             case 11: if (getGPR(r) != 0) PC = calculateEffectiveAddress(address, ix, i); break; // JNE
             case 12: if (getCC(r)) PC = calculateEffectiveAddress(address, ix, i); break; // JCC
             case 13: PC = calculateEffectiveAddress(address, ix, i); break; // JMA
-            case 14: setGPR(3, PC); PC = calculateEffectiveAddress(address, ix, i); break; // JSR
+            case 14: ea = calculateEffectiveAddress(address, ix, i); if (faulted) break; setGPR(3, PC); PC = ea; break; // JSR
             case 15: setGPR(0, address); PC = getGPR(3); break; // RFS
-            case 16: r_val = (short)getGPR(r) - 1; setGPR(r, r_val); if (r_val > 0) PC = calculateEffectiveAddress(address, ix, i); break; // SOB
+            case 16: // SOB: the branch EA is formed before r is written
+                r_val = (short)getGPR(r) - 1;
+                if (r_val > 0) { ea = calculateEffectiveAddress(address, ix, i); if (faulted) break; PC = ea; }
+                setGPR(r, r_val); break;
             case 17: if ((short)getGPR(r) >= 0) PC = calculateEffectiveAddress(address, ix, i); break; // JGE
 
+            // Floating point / vector
+            case 33: // FADD
+            case 34: // FSUB
+                ea = calculateEffectiveAddress(address, ix, i);
+                double lhs = floatToDouble(fr[r]), rhs = floatToDouble(readMemory(ea));
+                if (faulted) break;
+                setCC(0, false); setCC(1, false);
+                setFR(r, doubleToFloat(opcode == 33 ? lhs + rhs : lhs - rhs)); break;
+            case 35: // VADD
+            case 36: // VSUB
+                ea = calculateEffectiveAddress(address, ix, i);
+                vectorOp(fr[r], readMemory(ea), readMemory(ea + 1), opcode == 36); break;
+            case 37: // CNVRT: c(r)=0 -> float c(EA) to fixed in r; c(r)=1 -> fixed c(EA) to float in FR0
+                ea = calculateEffectiveAddress(address, ix, i); ea_val = readMemory(ea);
+                if (faulted) break;
+                if (getGPR(r) == 0) {
+                    double v = floatToDouble(ea_val);
+                    setCC(0, v > 32767 || v < -32768);
+                    setGPR(r, (int) Math.max(-32768, Math.min(32767, (long) v)));
+                } else if (getGPR(r) == 1) {
+                    setCC(0, false); setCC(1, false);
+                    setFR(0, doubleToFloat((short) ea_val));
+                }
+                break;
+            case 50: ea = calculateEffectiveAddress(address, ix, i); ea_val = readMemory(ea); if (!faulted) setFR(r, ea_val); break; // LDFR
+            case 51: ea = calculateEffectiveAddress(address, ix, i); writeMemory(ea, fr[r]); break; // STFR
+
             // --- PART 3 NEW INSTRUCTIONS ---
             case 61: // IN
-                if (gui != null) {
-                    // Device 2 is the File Reader for Program 2
-                    int input = gui.readFromDevice(devid);
-                    if (gui.isWaitingForInput()) { PC--; return true; } // Pause
+                if (devid == DmaController.DEVICE) { setGPR(r, dma.getTransferred()); break; }
+                if (devid == 2) { setGPR(r, fileReader.read()); break; } // File Reader for Program 2
+                if (devices != null) {
+                    int input = devices.readFromDevice(devid);
+                    if (devices.isWaitingForInput()) { PC--; return true; } // Pause
                     setGPR(r, input);
                 }
                 break;
             case 62: // OUT
-                if (gui != null) gui.writeToDevice(devid, getGPR(r));
+                if (devid == DmaController.DEVICE) { if (!dma.write(getGPR(r))) triggerFault(1); break; }
+                if (devid == VirtualMemory.DEVICE) { if (!vm.write(getGPR(r))) triggerFault(1); break; }
+                if (devices != null) devices.writeToDevice(devid, getGPR(r));
                 break;
             case 63: // CHK (Check Device Status)
-                // 0: Keyboard, 1: Printer, 2: File Reader
+                // 0: Keyboard, 1: Printer, 2: File Reader, 3: DMA (0 while a transfer is in flight), 4: MMU
                 // Returns 1 (Ready) or 0 (Busy). For sim, mostly 1.
-                int status = 1;
+                int status = devid == DmaController.DEVICE && dma.isBusy() ? 0 : 1;
                 // Could perform more complex checks here if needed
                 setGPR(r, status);
                 break;
@@ -164,12 +422,13 @@ public class CPU {
                 int trapCode = address & 0b1111;
                 // Save PC to memory[2], jump to memory[0] + trapCode
                 // Simplified: just jump to trap vector 0
-                memory[2] = PC;
+                memory[2] = PC; markDirty(2);
                 PC = 0; // Vector 0 is the trap handler
                 break;
 
             default: triggerFault(4); return false; // Illegal Opcode
         }
+        if (faulted) { PC = 1; return false; } // a memory fault mid-instruction wins over any jump
         return true;
     }
 }
\ No newline at end of file
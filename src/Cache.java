@@ -1,5 +1,7 @@
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntBinaryOperator;
 
 public class Cache {
 
@@ -13,6 +15,16 @@ public class Cache {
     private final Queue<Integer> fifoQueue;
     private final int CACHE_SIZE = 16;
     private final CPU cpu;
+    // Bit i set = line i changed since the GUI last drained the mask
+    private final AtomicInteger changedLines = new AtomicInteger();
+    private static final IntBinaryOperator OR = (a, b) -> a | b;
+    private AddressTrace trace; // records every reference when set (see CacheSweep)
+
+    // Hit/miss totals, plus a fixed window that reports miss bursts to JFR without per-access events
+    private static final int BURST_WINDOW = 1024;
+    private static final int BURST_THRESHOLD = BURST_WINDOW / 2;
+    private long hits, misses;
+    private int windowRefs, windowMisses;
 
     public Cache(CPU cpu) {
         this.cpu = cpu;
@@ -30,27 +42,37 @@ public class Cache {
             cacheLines[i].data = 0;
         }
         fifoQueue.clear();
+        changedLines.set((1 << CACHE_SIZE) - 1);
     }
 
+    public void setTrace(AddressTrace trace) { this.trace = trace; }
+
     public int read(int address) {
+        if (trace != null) trace.record(address, false);
         for (int i = 0; i < CACHE_SIZE; i++) {
             if (cacheLines[i].valid && cacheLines[i].tag == address) {
+                countReference(true);
                 return cacheLines[i].data;
             }
         }
+        countReference(false);
         int data = cpu.fetchFromMemory(address);
         addToCache(address, data);
         return data;
     }
 
     public void write(int address, int value) {
+        if (trace != null) trace.record(address, true);
         cpu.writeToMemory(address, value);
         for (int i = 0; i < CACHE_SIZE; i++) {
             if (cacheLines[i].valid && cacheLines[i].tag == address) {
                 cacheLines[i].data = value;
+                markChanged(i);
+                countReference(true);
                 return;
             }
         }
+        countReference(false);
         addToCache(address, value);
     }
 
@@ -61,6 +83,7 @@ public class Cache {
                 cacheLines[i].tag = address;
                 cacheLines[i].data = data;
                 fifoQueue.add(i);
+                markChanged(i);
                 return;
             }
         }
@@ -68,18 +91,40 @@ public class Cache {
         cacheLines[indexToEvict].tag = address;
         cacheLines[indexToEvict].data = data;
         fifoQueue.add(indexToEvict);
+        markChanged(indexToEvict);
+    }
+
+    private void countReference(boolean hit) {
+        if (hit) hits++; else { misses++; windowMisses++; }
+        if (++windowRefs == BURST_WINDOW) {
+            if (windowMisses >= BURST_THRESHOLD) SimEvents.cacheMissBurst(windowRefs, windowMisses, cpu.PC);
+            windowRefs = 0;
+            windowMisses = 0;
+        }
     }
 
-    // This is the method required by SimulatorGUI
-    public String getCacheStateForGUI() {
-        StringBuilder sb = new StringBuilder();
+    // Resync lines after a bulk update of memory[from, to) that bypassed the cache
+    public void refreshRange(int from, int to) {
         for (int i = 0; i < CACHE_SIZE; i++) {
-            if (cacheLines[i].valid) {
-                sb.append(String.format("L%d: [M: %04o, V: %06o]\n", i, cacheLines[i].tag, cacheLines[i].data));
-            } else {
-                sb.append(String.format("L%d: [Invalid]\n", i));
+            if (cacheLines[i].valid && cacheLines[i].tag >= from && cacheLines[i].tag < to) {
+                cacheLines[i].data = cpu.peekMemory(cacheLines[i].tag);
+                markChanged(i);
             }
         }
-        return sb.toString();
     }
-}
\ No newline at end of file
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+
+    private void markChanged(int line) {
+        int bit = 1 << line;
+        if ((changedLines.get() & bit) == 0) changedLines.getAndAccumulate(bit, OR);
+    }
+
+    // Accessors for the incrementally refreshed cache table
+    public int getLineCount() { return CACHE_SIZE; }
+    public boolean isLineValid(int line) { return cacheLines[line].valid; }
+    public int getLineTag(int line) { return cacheLines[line].tag; }
+    public int getLineData(int line) { return cacheLines[line].data; }
+    public int drainChangedLines() { return changedLines.getAndSet(0); }
+}
@@ -0,0 +1,188 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Evaluates many cache configurations against one recorded address stream.
+//
+//   java CacheSweep <program_load.txt> [--max N] [--save-trace file]
+//   java CacheSweep --trace <file>
+//
+// Lines hold one word each and every reference allocates, matching Cache. LRU results for all
+// associativities of a given set count come from one stack-distance (Mattson) pass; FIFO and
+// random replacement have no inclusion property, so each of those configurations is simulated
+// on its own, in parallel.
+public class CacheSweep {
+
+    private static final int MAX_LINES = 1024;
+    private static final int CURRENT_LINES = 16; // Cache.CACHE_SIZE, fully associative FIFO
+    private static final long DEFAULT_MAX_INSTRUCTIONS = 10_000_000L;
+
+    private final AddressTrace trace;
+    private final int addressSpace;
+
+    public CacheSweep(AddressTrace trace) {
+        this.trace = trace;
+        int max = 0;
+        for (int k = 0; k < trace.size(); k++) max = Math.max(max, trace.addressAt(k));
+        this.addressSpace = max + 1;
+    }
+
+    // ------------------------------------------------------------
+    // LRU: stack distances per set count
+    // ------------------------------------------------------------
+    // hist[d] = references whose reuse distance within their set is d; hist[ways] = cold misses
+    long[] stackDistanceHistogram(int sets, int ways) {
+        int n = trace.size();
+        int[] perSet = new int[sets];
+        for (int k = 0; k < n; k++) perSet[trace.addressAt(k) & (sets - 1)]++;
+
+        // One Fenwick tree per set over that set's local timeline; a position is marked while it is
+        // the most recent reference to its address, so marks after last[a] count distinct addresses
+        long[][] fenwick = new long[sets][];
+        for (int s = 0; s < sets; s++) fenwick[s] = new long[perSet[s] + 1];
+        int[] clock = new int[sets];
+        int[] last = new int[addressSpace];
+
+        long[] hist = new long[ways + 1];
+        for (int k = 0; k < n; k++) {
+            int a = trace.addressAt(k);
+            int s = a & (sets - 1);
+            long[] tree = fenwick[s];
+            int now = ++clock[s];
+            if (last[a] == 0) {
+                hist[ways]++;
+            } else {
+                long d = prefix(tree, now - 1) - prefix(tree, last[a]);
+                hist[(int) Math.min(d, ways)]++;
+                add(tree, last[a], -1);
+            }
+            add(tree, now, 1);
+            last[a] = now;
+        }
+        return hist;
+    }
+
+    private static long prefix(long[] tree, int i) {
+        long sum = 0;
+        for (; i > 0; i -= i & -i) sum += tree[i];
+        return sum;
+    }
+
+    private static void add(long[] tree, int i, long v) {
+        for (; i < tree.length; i += i & -i) tree[i] += v;
+    }
+
+    // ------------------------------------------------------------
+    // FIFO / random: direct simulation of one configuration
+    // ------------------------------------------------------------
+    long simulate(int sets, int ways, boolean random) {
+        int[][] lines = new int[sets][ways];
+        int[] filled = new int[sets];
+        int[] head = new int[sets];
+        boolean[] resident = new boolean[addressSpace];
+        Random rnd = new Random(6461);
+        long misses = 0;
+        for (int k = 0; k < trace.size(); k++) {
+            int a = trace.addressAt(k);
+            if (resident[a]) continue;
+            misses++;
+            int s = a & (sets - 1);
+            int way;
+            if (filled[s] < ways) {
+                way = filled[s]++;
+            } else {
+                way = random ? rnd.nextInt(ways) : head[s];
+                head[s] = (head[s] + 1) % ways;
+                resident[lines[s][way]] = false;
+            }
+            lines[s][way] = a;
+            resident[a] = true;
+        }
+        return misses;
+    }
+
+    // ------------------------------------------------------------
+    // Miss-rate table
+    // ------------------------------------------------------------
+    public String report() {
+        long refs = trace.size();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("References: %d   distinct addresses <= %d%n%n", refs, addressSpace));
+        sb.append(String.format("%6s %6s %6s   %8s %8s %8s%n", "Lines", "Sets", "Ways", "LRU%", "FIFO%", "RAND%"));
+
+        List<int[]> configs = new ArrayList<>(); // {lines, sets, ways}
+        for (int lines = 1; lines <= MAX_LINES; lines <<= 1) {
+            for (int ways = 1; ways <= lines; ways <<= 1) configs.add(new int[]{lines, lines / ways, ways});
+        }
+
+        // One Mattson pass per set count covers every associativity at that set count
+        long[][] lruMisses = new long[MAX_LINES + 1][];
+        for (int sets = 1; sets <= MAX_LINES; sets <<= 1) {
+            long[] hist = stackDistanceHistogram(sets, MAX_LINES / sets);
+            long[] missesByWays = new long[MAX_LINES / sets + 1];
+            long hits = 0;
+            for (int ways = 1; ways <= MAX_LINES / sets; ways++) {
+                hits += hist[ways - 1];
+                missesByWays[ways] = refs - hits;
+            }
+            lruMisses[sets] = missesByWays;
+        }
+
+        long[][] other = configs.parallelStream()
+                .map(c -> new long[]{simulate(c[1], c[2], false), simulate(c[1], c[2], true)})
+                .toArray(long[][]::new);
+
+        for (int k = 0; k < configs.size(); k++) {
+            int[] c = configs.get(k);
+            boolean current = c[0] == CURRENT_LINES && c[1] == 1;
+            sb.append(String.format("%6d %6d %6d   %8.3f %8.3f %8.3f%s%n", c[0], c[1], c[2],
+                    pct(lruMisses[c[1]][c[2]], refs), pct(other[k][0], refs), pct(other[k][1], refs),
+                    current ? "   <- current (FIFO)" : ""));
+        }
+        return sb.toString();
+    }
+
+    private static double pct(long misses, long refs) { return refs == 0 ? 0 : 100.0 * misses / refs; }
+
+    // Run a program headlessly with the cache recording every reference
+    public static AddressTrace capture(File loadFile, long maxInstructions) throws IOException {
+        CPU cpu = new CPU();
+        cpu.loadProgram(loadFile);
+        AddressTrace trace = new AddressTrace();
+        cpu.cache.setTrace(trace);
+        long executed = cpu.run(maxInstructions);
+        cpu.cache.setTrace(null);
+        cpu.close();
+        System.out.printf("Captured %d references from %d instructions%s%n", trace.size(), executed,
+                cpu.MFR != 0 ? " (stopped on fault " + cpu.MFR + ")" : "");
+        System.out.print(cpu.metrics.format());
+        return trace;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java CacheSweep <program_load.txt> [--max N] [--save-trace file]");
+            System.err.println("       java CacheSweep --trace <file>");
+            return;
+        }
+        AddressTrace trace;
+        if (args[0].equals("--trace")) {
+            trace = AddressTrace.load(new File(args[1]));
+        } else {
+            long max = DEFAULT_MAX_INSTRUCTIONS;
+            String saveTo = null;
+            for (int k = 1; k + 1 < args.length; k += 2) {
+                if (args[k].equals("--max")) max = Long.parseLong(args[k + 1]);
+                else if (args[k].equals("--save-trace")) saveTo = args[k + 1];
+            }
+            trace = capture(new File(args[0]), max);
+            if (saveTo != null) trace.save(new File(saveTo));
+        }
+        long start = System.nanoTime();
+        String table = new CacheSweep(trace).report();
+        System.out.print(table);
+        System.out.printf("%nSweep time: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+    }
+}
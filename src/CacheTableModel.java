@@ -0,0 +1,32 @@
+import javax.swing.table.AbstractTableModel;
+
+// Cache lines as a table; refresh() fires updates only for lines the cache reports as changed
+public class CacheTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Line", "Address", "Value"};
+    private final Cache cache;
+
+    public CacheTableModel(Cache cache) { this.cache = cache; }
+
+    @Override public int getRowCount() { return cache.getLineCount(); }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int col) { return COLUMNS[col]; }
+
+    @Override
+    public Object getValueAt(int row, int col) {
+        if (col == 0) return "L" + row;
+        if (!cache.isLineValid(row)) return col == 1 ? "Invalid" : "";
+        return col == 1 ? String.format("%04o", cache.getLineTag(row))
+                        : String.format("%06o", cache.getLineData(row));
+    }
+
+    public void refresh() {
+        int changed = cache.drainChangedLines();
+        while (changed != 0) {
+            int line = Integer.numberOfTrailingZeros(changed);
+            fireTableRowsUpdated(line, line);
+            changed &= changed - 1;
+        }
+    }
+}
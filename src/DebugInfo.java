@@ -0,0 +1,183 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Debug-info sidecar written by the Assembler next to the load file ([source]_debug.bin).
+//
+// Layout (big-endian, DataOutputStream):
+//   int    magic 'C6DB', short version
+//   UTF    source file name
+//   int    CRC-32 of the load file it describes; a sidecar left over from another build is rejected
+//   int    N, then N x UTF source lines (as assembled, 1-based line = index + 1)
+//   int    E, then E x { short address, short line, short column, byte kind }
+//   int    S, then S x { UTF name, short address }
+// Loading expands the tables into per-address arrays so every lookup is O(1).
+public class DebugInfo {
+
+    public static final int KIND_CODE = 0;
+    public static final int KIND_DATA = 1;
+    private static final int MAGIC = 0x43364442; // "C6DB"
+    private static final short VERSION = 3;
+
+    private final String sourceName;
+    private final String[] sourceLines;
+    private final int[] lineByAddress;      // 0 = no entry
+    private final int[] columnByAddress;
+    private final byte[] kindByAddress;     // -1 = no entry
+    private final String[] symbolByAddress; // label defined exactly here
+    private final int[] nearestSymbol;      // address of closest label at or below, -1 if none
+    private final Map<String, Integer> symbols;
+
+    private DebugInfo(String sourceName, String[] sourceLines, int size, Map<String, Integer> symbols) {
+        this.sourceName = sourceName;
+        this.sourceLines = sourceLines;
+        this.lineByAddress = new int[size];
+        this.columnByAddress = new int[size];
+        this.kindByAddress = new byte[size];
+        this.symbolByAddress = new String[size];
+        this.nearestSymbol = new int[size];
+        this.symbols = symbols;
+        java.util.Arrays.fill(kindByAddress, (byte) -1);
+    }
+
+    // ------------------------------------------------------------
+    // Writing (Assembler side)
+    // ------------------------------------------------------------
+    // entries: {address, line, column, kind}, in address-assignment order; loadFile must already be written
+    public static void write(String fileName, String sourceName, File loadFile, List<String> sourceLines,
+                             List<int[]> entries, Map<String, Integer> symbolTable) throws IOException {
+        int checksum = checksum(loadFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(sourceName);
+            out.writeInt(checksum);
+
+            out.writeInt(sourceLines.size());
+            for (String line : sourceLines) out.writeUTF(line);
+
+            out.writeInt(entries.size());
+            for (int[] e : entries) {
+                out.writeShort(e[0]); out.writeShort(e[1]); out.writeShort(e[2]); out.writeByte(e[3]);
+            }
+
+            out.writeInt(symbolTable.size());
+            for (Map.Entry<String, Integer> sym : symbolTable.entrySet()) {
+                out.writeUTF(sym.getKey());
+                out.writeShort(sym.getValue());
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Loading (simulator side)
+    // ------------------------------------------------------------
+    public static DebugInfo load(File file, File loadFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a debug-info file: " + file);
+            short version = in.readShort();
+            if (version != VERSION) throw new IOException("Unsupported debug-info version " + version);
+            String sourceName = in.readUTF();
+            if (in.readInt() != checksum(loadFile)) throw new IOException(file.getName() + " does not match " + loadFile.getName());
+
+            String[] lines = new String[in.readInt()];
+            for (int k = 0; k < lines.length; k++) lines[k] = in.readUTF();
+
+            int[][] entries = new int[in.readInt()][];
+            int size = 0;
+            for (int k = 0; k < entries.length; k++) {
+                entries[k] = new int[]{in.readUnsignedShort(), in.readUnsignedShort(), in.readUnsignedShort(), in.readByte()};
+                size = Math.max(size, entries[k][0] + 1);
+            }
+
+            Map<String, Integer> symbols = new HashMap<>();
+            int symbolCount = in.readInt();
+            for (int k = 0; k < symbolCount; k++) {
+                String name = in.readUTF();
+                int addr = in.readUnsignedShort();
+                symbols.put(name, addr);
+                size = Math.max(size, addr + 1);
+            }
+
+            DebugInfo info = new DebugInfo(sourceName, lines, size, symbols);
+            for (int[] e : entries) {
+                info.lineByAddress[e[0]] = e[1];
+                info.columnByAddress[e[0]] = e[2];
+                info.kindByAddress[e[0]] = (byte) e[3];
+            }
+            for (Map.Entry<String, Integer> sym : symbols.entrySet()) {
+                int addr = sym.getValue();
+                // Several labels on one word: keep the alphabetically first for a stable display
+                if (info.symbolByAddress[addr] == null || sym.getKey().compareTo(info.symbolByAddress[addr]) < 0) {
+                    info.symbolByAddress[addr] = sym.getKey();
+                }
+            }
+            int nearest = -1;
+            for (int addr = 0; addr < size; addr++) {
+                if (info.symbolByAddress[addr] != null) nearest = addr;
+                info.nearestSymbol[addr] = nearest;
+            }
+            return info;
+        }
+    }
+
+    private static int checksum(File loadFile) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(Files.readAllBytes(loadFile.toPath()));
+        return (int) crc.getValue();
+    }
+
+    // Sidecar path for a load file: foo_load.txt -> foo_debug.bin
+    public static File sidecarFor(File loadFile) {
+        String name = loadFile.getName();
+        String base = name.endsWith("_load.txt") ? name.substring(0, name.length() - "_load.txt".length())
+                                                 : name.replaceFirst("\\.txt$", "");
+        return new File(loadFile.getParentFile(), base + "_debug.bin");
+    }
+
+    // ------------------------------------------------------------
+    // Lookups
+    // ------------------------------------------------------------
+    private boolean inRange(int addr) { return addr >= 0 && addr < lineByAddress.length; }
+
+    public String getSourceName() { return sourceName; }
+
+    public int lineAt(int addr) { return inRange(addr) ? lineByAddress[addr] : 0; }
+
+    public int columnAt(int addr) { return inRange(addr) ? columnByAddress[addr] : 0; }
+
+    public boolean hasEntry(int addr) { return inRange(addr) && kindByAddress[addr] >= 0; }
+
+    public boolean isCode(int addr) { return inRange(addr) && kindByAddress[addr] == KIND_CODE; }
+
+    public boolean isData(int addr) { return inRange(addr) && kindByAddress[addr] == KIND_DATA; }
+
+    // Source text for the word at addr, without label or comment; "" when unknown
+    public String sourceAt(int addr) {
+        int line = lineAt(addr);
+        if (line <= 0 || line > sourceLines.length) return "";
+        return Assembler.stripComments(sourceLines[line - 1]).trim().replaceFirst("^\\w+:\\s*", "");
+    }
+
+    public String symbolAt(int addr) { return inRange(addr) ? symbolByAddress[addr] : null; }
+
+    // "LABEL" or "LABEL+n" relative to the closest label at or below addr; octal address otherwise
+    public String symbolize(int addr) {
+        int base = inRange(addr) ? nearestSymbol[addr] : (lineByAddress.length > 0 ? nearestSymbol[lineByAddress.length - 1] : -1);
+        if (base < 0) return String.format("%04o", addr);
+        String name = symbolByAddress[base];
+        return addr == base ? name : name + "+" + (addr - base);
+    }
+
+    public Integer addressOf(String symbol) { return symbols.get(symbol); }
+}
@@ -0,0 +1,76 @@
+// Device 3: DMA block-transfer controller.
+//
+// The guest programs a transfer with three successive OUT r,3 writes: source device, destination
+// address, length (words). The third write starts it. The transfer then proceeds alongside the
+// program, one chunk per executed instruction, copied into memory with System.arraycopy rather
+// than one IN per word. CHK r,3 gives 1 once the controller is idle (0 while busy) and IN r,3 the
+// number of words the last transfer actually moved, which is short if the source ran dry.
+//
+// The destination is a physical address. With virtual memory on (Device 4) the controller does
+// not translate it, bypasses the page table and may overwrite paging-pool frames; a guest that
+// pages should point DMA at memory outside the pool.
+public class DmaController {
+
+    public static final int DEVICE = 3;
+    private static final int CHUNK = 64; // words moved per executed instruction
+
+    private final CPU cpu;
+    private final int[] chunk = new int[CHUNK];
+    private final int[] programmed = new int[3]; // source device, destination, length
+    private int phase;
+
+    private boolean busy;
+    private int device, next, remaining, transferred;
+    private SimEvents.DmaTransfer event;
+
+    public DmaController(CPU cpu) { this.cpu = cpu; }
+
+    public void reset() {
+        phase = 0; busy = false; transferred = 0; event = null;
+    }
+
+    public boolean isBusy() { return busy; }
+
+    public int getTransferred() { return transferred; }
+
+    // OUT r,3. Writing while a transfer is in flight aborts it, keeping the words already moved,
+    // and starts programming a new one. Returns false if the programmed block does not fit in memory.
+    public boolean write(int value) {
+        if (busy) finish(true);
+        programmed[phase++] = value & 0xFFFF;
+        if (phase < programmed.length) return true;
+        phase = 0;
+        device = programmed[0];
+        next = programmed[1];
+        remaining = programmed[2];
+        transferred = 0;
+        if (remaining == 0) return true;
+        if (next + remaining > cpu.memory.length) return false;
+        busy = true;
+        cpu.metrics.counter("dma.transfers").increment();
+        event = new SimEvents.DmaTransfer();
+        event.begin();
+        return true;
+    }
+
+    // Called by the CPU before each instruction while busy
+    public void step() {
+        int n = cpu.readBlockFromDevice(device, chunk, Math.min(CHUNK, remaining));
+        if (n > 0) {
+            cpu.storeBlock(next, chunk, n);
+            next += n; remaining -= n; transferred += n;
+        }
+        if (n <= 0 || remaining == 0) finish(false);
+    }
+
+    private void finish(boolean aborted) {
+        busy = false;
+        cpu.metrics.counter("dma.words").add(transferred);
+        event.device = device;
+        event.address = next - transferred;
+        event.words = transferred;
+        event.aborted = aborted;
+        event.commit();
+        event = null;
+    }
+}
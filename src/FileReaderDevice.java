@@ -0,0 +1,106 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+// Device 2: the paragraph file reader, streamed from disk on demand.
+//
+// The file is memory-mapped a window at a time and decoded into a fixed char buffer, so heap use
+// stays constant however large the input is and nothing is read before the program asks for it.
+// The guest sees what the old line-by-line preload produced: line endings normalized to '\n', a
+// final '\n' if the last line lacks one, then a single 0 terminator; 0 after that, or with no file.
+public class FileReaderDevice {
+
+    private static final long WINDOW = 4L << 20; // bytes mapped at a time
+    private static final int CHARS = 8192;
+
+    private final CharBuffer chars = CharBuffer.allocate(CHARS);
+    private FileChannel channel;   // null once the terminator has been delivered
+    private MappedByteBuffer window;
+    private long windowStart, size;
+    private CharsetDecoder decoder;
+    private boolean inputDone, afterCR, atLineStart;
+
+    public void open(File file) throws IOException {
+        close();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+        chars.clear().flip();
+        inputDone = false; afterCR = false; atLineStart = true;
+    }
+
+    public void close() {
+        if (channel == null) return;
+        try { channel.close(); } catch (IOException e) { /* read-only, nothing to lose */ }
+        channel = null;
+        window = null; // unmapped when collected
+    }
+
+    public boolean isOpen() { return channel != null; }
+
+    // IN r,2
+    public int read() {
+        while (true) {
+            if (channel == null) return 0;
+            if (!chars.hasRemaining()) {
+                if (!inputDone) fill();
+                if (!chars.hasRemaining()) {
+                    if (!atLineStart) { atLineStart = true; return '\n'; }
+                    close();
+                    return 0; // terminator
+                }
+            }
+            char c = chars.get();
+            if (c == '\n' && afterCR) { afterCR = false; continue; }
+            afterCR = c == '\r';
+            if (afterCR) c = '\n';
+            atLineStart = c == '\n';
+            return c;
+        }
+    }
+
+    // DMA source: up to max characters, stopping after the terminator
+    public int readBlock(int[] buf, int max) {
+        int n = 0;
+        while (n < max && channel != null) buf[n++] = read();
+        return n;
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, size - position));
+    }
+
+    // Decode the next run of characters; a character split across windows is carried over by
+    // remapping from the first byte the decoder has not consumed
+    private void fill() {
+        chars.clear();
+        try {
+            while (!inputDone) {
+                boolean last = windowStart + window.limit() == size;
+                CoderResult result = decoder.decode(window, chars, last);
+                if (result.isOverflow()) break;
+                if (last) {
+                    decoder.flush(chars);
+                    inputDone = true;
+                } else {
+                    map(windowStart + window.position());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Device 2 read error: " + e.getMessage());
+            inputDone = true;
+        }
+        chars.flip();
+    }
+}
@@ -0,0 +1,427 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+// GDB Remote Serial Protocol stub on localhost.
+//
+// Memory is presented to the client as bytes: word W occupies byte addresses 2W (low byte)
+// and 2W+1 (high byte). Addresses are the guest's: virtual when the MMU (Device 4) is on, like PC
+// and breakpoints, translated without side effects; a word on a non-resident page reads as E01.
+// Registers are 16-bit little-endian, numbered:
+//   0-3 R0-R3, 4-6 X1-X3, 7 PC, 8 IR, 9 MAR, 10 MBR, 11 MFR, 12 CC, 13-14 FR0-FR1
+// Supported packets: ? g G p P m M x X s c vCont Z0/z0 Z1/z1 qSupported QStartNoAckMode qRcmd k D
+public class GdbServer implements Runnable {
+
+    public static final int DEFAULT_PORT = 6461;
+    private static final int NUM_REGS = 15;
+    private static final int PACKET_SIZE = 0x4000;
+    private static final int RESUME_BATCH = 1024;
+
+    private final CPU cpu;
+    private final int port;
+    private final boolean[] breakpoints;
+    private Runnable stopListener = () -> {};
+
+    private InputStream in;
+    private OutputStream out;
+    private boolean noAck = false;
+    private boolean pendingNoAck = false;
+    private boolean closeAfterReply = false;
+    private String lastStop = "S05";
+
+    public GdbServer(CPU cpu, int port) {
+        this.cpu = cpu;
+        this.port = port;
+        this.breakpoints = new boolean[Math.max(cpu.memory.length, VirtualMemory.VIRTUAL_WORDS)];
+    }
+
+    // Called after every step/continue so a GUI running beside the stub can refresh
+    public void setStopListener(Runnable listener) { this.stopListener = listener; }
+
+    public Thread start() {
+        Thread t = new Thread(this, "gdb-stub");
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    @Override
+    public void run() {
+        try (ServerSocket server = new ServerSocket(port, 1, InetAddress.getLoopbackAddress())) {
+            System.out.println("GDB stub listening on localhost:" + port);
+            while (!Thread.currentThread().isInterrupted()) {
+                try (Socket client = server.accept()) {
+                    client.setTcpNoDelay(true);
+                    serve(client);
+                } catch (IOException | RuntimeException e) { // a bug in one session must not kill the stub
+                    System.err.println("GDB session ended: " + e);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("GDB stub failed: " + e.getMessage());
+        }
+    }
+
+    private void serve(Socket client) throws IOException {
+        in = new BufferedInputStream(client.getInputStream());
+        out = new BufferedOutputStream(client.getOutputStream());
+        noAck = false;
+        closeAfterReply = false;
+        byte[] packet;
+        while ((packet = readPacket()) != null) {
+            String reply;
+            try {
+                reply = handle(packet);
+            } catch (RuntimeException e) { // malformed arguments: reject the packet, keep the session
+                reply = "E01";
+            }
+            if (reply == null) return; // k
+            sendPacket(reply.getBytes(StandardCharsets.ISO_8859_1));
+            if (pendingNoAck) { noAck = true; pendingNoAck = false; }
+            if (closeAfterReply) return; // D
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Packet framing
+    // ------------------------------------------------------------
+    private byte[] readPacket() throws IOException {
+        while (true) {
+            int c = in.read();
+            if (c < 0) return null;
+            if (c == 0x03) { lastStop = "S02"; continue; } // interrupt while stopped
+            if (c != '$') continue;                         // stray acks
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            int sum = 0;
+            while ((c = in.read()) != '#') {
+                if (c < 0) return null;
+                buf.write(c); sum += c;
+            }
+            int hi = in.read(), lo = in.read();
+            if (lo < 0) return null;
+            if (!noAck) {
+                boolean ok = Character.digit(hi, 16) >= 0 && Character.digit(lo, 16) >= 0
+                        && (Character.digit(hi, 16) << 4 | Character.digit(lo, 16)) == (sum & 0xFF);
+                out.write(ok ? '+' : '-'); out.flush();
+                if (!ok) continue;
+            }
+            return buf.toByteArray();
+        }
+    }
+
+    private void sendPacket(byte[] data) throws IOException {
+        int sum = 0;
+        out.write('$');
+        for (byte b : data) { out.write(b); sum += b & 0xFF; }
+        out.write('#');
+        out.write(String.format("%02x", sum & 0xFF).getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    // ------------------------------------------------------------
+    // Commands
+    // ------------------------------------------------------------
+    private String handle(byte[] packet) throws IOException {
+        String cmd = new String(packet, StandardCharsets.ISO_8859_1);
+        if (cmd.isEmpty()) return "";
+        // Continue takes the CPU lock per batch (see resume) so the GUI is not shut out while it runs
+        if (cmd.charAt(0) == 'c') return resume(cmd.substring(1));
+        if (cmd.startsWith("vCont;c")) return resume("");
+        synchronized (cpu) {
+            switch (cmd.charAt(0)) {
+                case '?': return lastStop;
+                case 'g': return readRegisters();
+                case 'G': return writeRegisters(cmd.substring(1));
+                case 'p': return hex16(getRegister(Integer.parseInt(cmd.substring(1), 16)));
+                case 'P': {
+                    String[] kv = cmd.substring(1).split("=");
+                    setRegister(Integer.parseInt(kv[0], 16), parseHex16(kv[1], 0));
+                    return "OK";
+                }
+                case 'm': return readMemoryHex(cmd.substring(1));
+                case 'M': return writeMemoryHex(cmd.substring(1));
+                case 'x': return readMemoryBinary(cmd.substring(1));
+                case 'X': return writeMemoryBinary(packet);
+                case 's': return step(cmd.substring(1));
+                case 'Z': return setBreakpoint(cmd.substring(1), true);
+                case 'z': return setBreakpoint(cmd.substring(1), false);
+                case 'H': return "OK";
+                case 'k': return null;
+                case 'D': closeAfterReply = true; return "OK";
+                case 'v':
+                    if (cmd.equals("vCont?")) return "vCont;c;s";
+                    if (cmd.startsWith("vCont;s")) return step("");
+                    return "";
+                case 'q':
+                    if (cmd.startsWith("qSupported"))
+                        return "PacketSize=" + Integer.toHexString(PACKET_SIZE) + ";QStartNoAckMode+;swbreak+;hwbreak+";
+                    if (cmd.equals("qAttached")) return "1";
+                    if (cmd.equals("qC")) return "QC1";
+                    if (cmd.equals("qfThreadInfo")) return "m1";
+                    if (cmd.equals("qsThreadInfo")) return "l";
+                    if (cmd.startsWith("qRcmd,")) return monitor(fromHex(cmd.substring(6)));
+                    return "";
+                case 'Q':
+                    if (cmd.equals("QStartNoAckMode")) { pendingNoAck = true; return "OK"; }
+                    return "";
+                default: return "";
+            }
+        }
+    }
+
+    // "monitor metrics" prints the simulator's metrics registry in the debugger; "monitor sym NAME"
+    // and "monitor info ADDR" (octal word address) look up the program's debug info
+    private String monitor(String command) {
+        String[] words = command.trim().split("\\s+");
+        if (words[0].equals("metrics")) return toHex(cpu.metrics.format());
+        if ((words[0].equals("sym") || words[0].equals("info")) && words.length == 2) {
+            DebugInfo debug = cpu.debugInfo;
+            if (debug == null) return toHex("No debug info loaded\n");
+            if (words[0].equals("sym")) {
+                Integer addr = debug.addressOf(words[1]);
+                return toHex(addr == null ? "No symbol " + words[1] + "\n" : String.format("%s = %06o%n", words[1], addr));
+            }
+            if (!words[1].matches("[0-7]{1,6}")) return toHex("Bad octal address " + words[1] + "\n");
+            int addr = Integer.parseInt(words[1], 8);
+            if (!debug.hasEntry(addr)) return toHex(String.format("%06o: no source%n", addr));
+            return toHex(String.format("%06o %s  %s:%d:%d  %s  %s%n", addr, debug.symbolize(addr), debug.getSourceName(),
+                    debug.lineAt(addr), debug.columnAt(addr), debug.isCode(addr) ? "code" : "data", debug.sourceAt(addr)));
+        }
+        return toHex("Unknown monitor command. Available: metrics, sym NAME, info ADDR\n");
+    }
+
+    private int getRegister(int n) {
+        if (n < 4) return cpu.getGPR(n);
+        if (n < 7) return cpu.getIXR(n - 3);
+        switch (n) {
+            case 7: return cpu.PC;
+            case 8: return cpu.IR;
+            case 9: return cpu.MAR;
+            case 10: return cpu.MBR;
+            case 11: return cpu.MFR;
+            case 12: return cpu.CC;
+            case 13: case 14: return cpu.getFR(n - 13);
+            default: return 0;
+        }
+    }
+
+    private void setRegister(int n, int v) {
+        if (n < 4) { cpu.setGPR(n, v); return; }
+        if (n < 7) { cpu.setIXR(n - 3, v); return; }
+        switch (n) {
+            case 7: cpu.PC = v; break;
+            case 8: cpu.IR = v; break;
+            case 9: cpu.MAR = v; break;
+            case 10: cpu.MBR = v; break;
+            case 11: cpu.MFR = v; break;
+            case 12: cpu.CC = v; break;
+            case 13: case 14: cpu.setFR(n - 13, v); break;
+            default: break;
+        }
+    }
+
+    private String readRegisters() {
+        StringBuilder sb = new StringBuilder(NUM_REGS * 4);
+        for (int n = 0; n < NUM_REGS; n++) sb.append(hex16(getRegister(n)));
+        return sb.toString();
+    }
+
+    private String writeRegisters(String hex) {
+        for (int n = 0; n < NUM_REGS && (n + 1) * 4 <= hex.length(); n++) setRegister(n, parseHex16(hex, n * 4));
+        return "OK";
+    }
+
+    // ------------------------------------------------------------
+    // Memory (byte view over 16-bit words, little-endian)
+    // ------------------------------------------------------------
+    // Physical word behind a guest address, -1 if its page is not resident
+    private int physical(int word, boolean write) {
+        return cpu.vm.isEnabled() ? cpu.vm.lookup(word, write) : word;
+    }
+
+    // -1 if unmapped
+    private int readByte(int byteAddr) {
+        int addr = physical(byteAddr >> 1, false);
+        if (addr < 0) return -1;
+        int word = cpu.peekMemory(addr);
+        return (byteAddr & 1) == 0 ? word & 0xFF : (word >> 8) & 0xFF;
+    }
+
+    private boolean writeByte(int byteAddr, int b) {
+        int addr = physical(byteAddr >> 1, true);
+        if (addr < 0) return false;
+        int word = cpu.peekMemory(addr);
+        word = (byteAddr & 1) == 0 ? (word & 0xFF00) | b : (word & 0x00FF) | (b << 8);
+        cpu.pokeMemory(addr, word);
+        return true;
+    }
+
+    private boolean inRange(int byteAddr, int len) {
+        int words = cpu.vm.isEnabled() ? VirtualMemory.VIRTUAL_WORDS : cpu.memory.length;
+        return byteAddr >= 0 && len >= 0 && byteAddr + len <= words * 2;
+    }
+
+    private String readMemoryHex(String args) {
+        String[] a = args.split(",");
+        int addr = Integer.parseInt(a[0], 16), len = Math.min(Integer.parseInt(a[1], 16), PACKET_SIZE / 2);
+        if (!inRange(addr, len)) return "E01";
+        StringBuilder sb = new StringBuilder(len * 2);
+        for (int k = 0; k < len; k++) {
+            int b = readByte(addr + k);
+            if (b < 0) return "E01";
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private String writeMemoryHex(String args) {
+        int colon = args.indexOf(':');
+        String[] a = args.substring(0, colon).split(",");
+        int addr = Integer.parseInt(a[0], 16), len = Integer.parseInt(a[1], 16);
+        if (!inRange(addr, len)) return "E01";
+        String data = args.substring(colon + 1);
+        for (int k = 0; k < len; k++) {
+            if (!writeByte(addr + k, Integer.parseInt(data.substring(k * 2, k * 2 + 2), 16))) return "E01";
+        }
+        return "OK";
+    }
+
+    // Binary read (x packet): reply is 'b' followed by escaped raw bytes
+    private String readMemoryBinary(String args) {
+        String[] a = args.split(",");
+        int addr = Integer.parseInt(a[0], 16), len = Math.min(Integer.parseInt(a[1], 16), PACKET_SIZE / 2);
+        if (!inRange(addr, len)) return "E01";
+        StringBuilder sb = new StringBuilder(len + 1).append('b');
+        for (int k = 0; k < len; k++) {
+            int b = readByte(addr + k);
+            if (b < 0) return "E01";
+            if (b == '#' || b == '$' || b == '}' || b == '*') sb.append('}').append((char) (b ^ 0x20));
+            else sb.append((char) b);
+        }
+        return sb.toString();
+    }
+
+    // Binary write (X packet): payload bytes after ':' are escaped with '}' (xor 0x20)
+    private String writeMemoryBinary(byte[] packet) {
+        int colon = 0;
+        while (packet[colon] != ':') colon++;
+        String[] a = new String(packet, 1, colon - 1, StandardCharsets.ISO_8859_1).split(",");
+        int addr = Integer.parseInt(a[0], 16), len = Integer.parseInt(a[1], 16);
+        if (!inRange(addr, len)) return "E01";
+        int k = 0;
+        for (int p = colon + 1; p < packet.length && k < len; p++) {
+            int b = packet[p] & 0xFF;
+            if (b == '}') b = (packet[++p] & 0xFF) ^ 0x20;
+            if (!writeByte(addr + k++, b)) return "E01";
+        }
+        return "OK";
+    }
+
+    // ------------------------------------------------------------
+    // Execution control
+    // ------------------------------------------------------------
+    private void setPCFromArgs(String args) {
+        if (!args.isEmpty()) cpu.PC = Integer.parseInt(args, 16) >> 1;
+    }
+
+    private String step(String args) {
+        setPCFromArgs(args);
+        boolean cont = cpu.executeInstruction();
+        lastStop = stopReason(cont);
+        stopListener.run();
+        return lastStop;
+    }
+
+    // Runs in batches of RESUME_BATCH instructions, holding the CPU lock only for a batch; between
+    // batches the GUI can take it and the client is polled for a ^C
+    private String resume(String args) throws IOException {
+        SimEvents.Run run = new SimEvents.Run();
+        run.begin();
+        boolean cont = true, stop = false;
+        long executed = 0;
+        synchronized (cpu) {
+            setPCFromArgs(args); // may throw on a malformed address: leave lastStop as it was
+            run.startPC = cpu.PC;
+        }
+        lastStop = null;
+        while (!stop) {
+            synchronized (cpu) {
+                for (int k = 0; k < RESUME_BATCH && !stop; k++) {
+                    cont = cpu.executeInstruction();
+                    executed++;
+                    stop = !cont || cpu.MFR != 0
+                            || (cpu.PC >= 0 && cpu.PC < breakpoints.length && breakpoints[cpu.PC]);
+                }
+            }
+            if (!stop && in.available() > 0) {
+                in.mark(1);
+                if (in.read() == 0x03) { lastStop = "S02"; stop = true; }
+                else in.reset();
+            }
+        }
+        synchronized (cpu) {
+            if (lastStop == null) lastStop = stopReason(cont);
+        }
+        run.instructions = executed;
+        run.stopReason = "gdb " + lastStop;
+        run.commit();
+        stopListener.run();
+        return lastStop;
+    }
+
+    private String stopReason(boolean cont) {
+        if (cpu.MFR != 0) return "S0b";          // SIGSEGV for machine faults
+        if (!cont) return "T05halt:0;";          // HLT reached
+        return "S05";                            // SIGTRAP for step / breakpoint
+    }
+
+    private String setBreakpoint(String args, boolean set) {
+        String[] a = args.split(",");
+        if (!a[0].equals("0") && !a[0].equals("1")) return "";
+        int addr = Integer.parseInt(a[1], 16) >> 1;
+        if (addr < 0 || addr >= breakpoints.length) return "E01";
+        breakpoints[addr] = set;
+        return "OK";
+    }
+
+    // ------------------------------------------------------------
+    // Hex helpers
+    // ------------------------------------------------------------
+    private static String hex16(int v) {
+        return String.format("%02x%02x", v & 0xFF, (v >> 8) & 0xFF);
+    }
+
+    private static String toHex(String text) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : text.getBytes(StandardCharsets.ISO_8859_1)) sb.append(String.format("%02x", b & 0xFF));
+        return sb.toString();
+    }
+
+    private static String fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int k = 0; k < bytes.length; k++) bytes[k] = (byte) Integer.parseInt(hex.substring(k * 2, k * 2 + 2), 16);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static int parseHex16(String hex, int off) {
+        int lo = Integer.parseInt(hex.substring(off, off + 2), 16);
+        int hi = off + 4 <= hex.length() ? Integer.parseInt(hex.substring(off + 2, off + 4), 16) : 0;
+        return lo | (hi << 8);
+    }
+
+    // Headless entry point: java GdbServer [port] [program_load.txt]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CPU cpu = new CPU();
+        if (args.length > 1) cpu.loadProgram(new File(args[1]));
+        new GdbServer(cpu, port).run();
+    }
+}
@@ -0,0 +1,8 @@
+// Keyboard (Device 0) and printer (Device 1) as seen by the CPU: the simulator GUI, or a headless
+// stand-in such as the benchmark harness. A device that cannot supply input yet returns 0 and
+// reports isWaitingForInput(); the CPU then re-executes the IN once input arrives.
+public interface IODevices {
+    int readFromDevice(int devId);
+    void writeToDevice(int devId, int val);
+    boolean isWaitingForInput();
+}
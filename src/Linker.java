@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+// Links relocatable modules into an absolute load file for the simulator.
+//
+//   java Linker [-o out_load.txt] [-base N] [-e SYMBOL] module.txt|module.obj ...
+//
+// Source modules (.txt) are assembled to .obj in parallel; a module whose .obj records the same
+// source hash is reused as is. Modules are placed one after another from -base (decimal, like LOC;
+// default 6, just above the trap/fault words) in command-line order. The entry point is -e or the
+// first word of the first module; it is written as the first load-file line because IPL starts
+// execution there.
+//
+// An instruction names its operand in a 5-bit field, so an ADDR5 relocation must resolve to 0-31.
+// Modules are not moved to satisfy that: a label a later module's instructions name directly
+// usually lands above 31 and the link is rejected with the offending references listed. Code
+// that must span modules reaches them through index registers or DATA pointers (ABS relocations,
+// full 16 bits) kept in low memory.
+public class Linker {
+
+    public static final int DEFAULT_BASE = 6;
+    private static final int MEMORY_WORDS = 2048;
+    private static final int ADDR5_MAX = 0x1F; // largest address an instruction's address field can hold
+
+    private static final class Placed {
+        final ObjectModule module;
+        final int base;
+        Placed(ObjectModule module, int base) { this.module = module; this.base = base; }
+    }
+
+    // ------------------------------------------------------------
+    // Build: parallel, incremental assembly
+    // ------------------------------------------------------------
+    public static List<ObjectModule> build(List<String> inputs) {
+        return inputs.parallelStream().map(input -> {
+            try {
+                return objectFor(new File(input));
+            } catch (IOException e) {
+                throw new UncheckedIOException(input + ": " + e.getMessage(), e);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    private static ObjectModule objectFor(File input) throws IOException {
+        if (input.getName().endsWith(".obj")) return ObjectModule.read(input);
+        File objectFile = new File(input.getPath().replace(".txt", ".obj"));
+        if (objectFile.isFile()) {
+            try {
+                ObjectModule existing = ObjectModule.read(objectFile);
+                if (existing.sourceHash.equals(ObjectModule.hashSource(input))) {
+                    System.out.println("  up to date: " + input.getName());
+                    return existing;
+                }
+            } catch (IOException | RuntimeException e) {
+                // unreadable or old-format object: rebuild it
+            }
+        }
+        System.out.println("  assembling: " + input.getName());
+        return Assembler.assembleObject(input, objectFile);
+    }
+
+    // ------------------------------------------------------------
+    // Link: placement, symbol resolution, relocation
+    // ------------------------------------------------------------
+    public static Map<Integer, Integer> link(List<ObjectModule> modules, int base, String entrySymbol,
+                                             Map<String, Integer> globals, int[] entryOut) {
+        List<String> errors = new ArrayList<>();
+        List<Placed> placed = new ArrayList<>();
+        int next = base;
+        for (ObjectModule m : modules) {
+            placed.add(new Placed(m, next));
+            next += m.size;
+        }
+        if (next > MEMORY_WORDS) errors.add(String.format("Program needs %d words; memory has %d", next, MEMORY_WORDS));
+
+        for (Placed p : placed) {
+            for (Map.Entry<String, Integer> e : p.module.exports.entrySet()) {
+                Integer previous = globals.put(e.getKey(), p.base + e.getValue());
+                if (previous != null) errors.add("Symbol " + e.getKey() + " exported by more than one module");
+            }
+        }
+
+        Map<Integer, Integer> image = new TreeMap<>();
+        for (Placed p : placed) {
+            Map<Integer, Integer> words = new LinkedHashMap<>();
+            for (int[] w : p.module.words) words.put(w[0], w[1]);
+            for (ObjectModule.Relocation r : p.module.relocations) {
+                Integer target;
+                if (r.symbol == null) {
+                    target = p.base + r.addend;
+                } else {
+                    target = globals.get(r.symbol);
+                    if (target == null) {
+                        errors.add(p.module.name + ": unresolved import " + r.symbol);
+                        continue;
+                    }
+                    target += r.addend;
+                }
+                int word = words.getOrDefault(r.offset, 0);
+                if (r.absolute) {
+                    word = target & 0xFFFF;
+                } else if (target > ADDR5_MAX) {
+                    String ref = r.symbol == null ? "local label" : r.symbol;
+                    errors.add(String.format("%s: %s resolves to %d (octal %06o), beyond the 5-bit address "
+                            + "field of the instruction at %06o; only addresses 0-%d can be named directly",
+                            p.module.name, ref, target, target, p.base + r.offset, ADDR5_MAX));
+                } else {
+                    word = (word & ~0x1F) | target;
+                }
+                words.put(r.offset, word);
+            }
+            words.forEach((offset, value) -> image.put(p.base + offset, value));
+        }
+
+        int entry = placed.isEmpty() ? base : placed.get(0).base + Math.max(placed.get(0).module.entry, 0);
+        if (entrySymbol != null) {
+            Integer e = globals.get(entrySymbol);
+            if (e == null) errors.add("Entry symbol " + entrySymbol + " is not exported by any module");
+            else entry = e;
+        }
+        if (errors.stream().anyMatch(e -> e.contains("5-bit address field"))) {
+            errors.add("Reach higher addresses through an index register or an indirect DATA pointer kept at or "
+                    + "below " + ADDR5_MAX + ", or list the module holding such pointers first");
+        }
+        if (!errors.isEmpty()) throw new IllegalArgumentException("Link failed:\n  " + String.join("\n  ", errors));
+        entryOut[0] = entry;
+        return image;
+    }
+
+    public static void writeLoadFile(String fileName, Map<Integer, Integer> image, int entry) throws IOException {
+        try (FileWriter w = new FileWriter(fileName)) {
+            if (image.containsKey(entry)) w.write(String.format("%06o %06o\n", entry, image.get(entry)));
+            for (Map.Entry<Integer, Integer> e : image.entrySet()) {
+                if (e.getKey() != entry) w.write(String.format("%06o %06o\n", e.getKey(), e.getValue()));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        String out = "a_load.txt";
+        String entrySymbol = null;
+        int base = DEFAULT_BASE;
+        List<String> inputs = new ArrayList<>();
+        for (int k = 0; k < args.length; k++) {
+            switch (args[k]) {
+                case "-o": out = args[++k]; break;
+                case "-base": base = Integer.parseInt(args[++k]); break;
+                case "-e": entrySymbol = args[++k]; break;
+                default: inputs.add(args[k]);
+            }
+        }
+        if (inputs.isEmpty()) {
+            System.err.println("Usage: java Linker [-o out_load.txt] [-base N] [-e SYMBOL] module.txt|module.obj ...");
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            System.out.println("--- Building Modules ---");
+            List<ObjectModule> modules = build(inputs);
+
+            System.out.println("--- Linking ---");
+            Map<String, Integer> globals = new TreeMap<>();
+            int[] entry = new int[1];
+            Map<Integer, Integer> image = link(modules, base, entrySymbol, globals, entry);
+            writeLoadFile(out, image, entry[0]);
+
+            int next = base;
+            for (ObjectModule m : modules) {
+                System.out.printf("  %-24s %06o-%06o%n", m.name, next, next + Math.max(m.size, 1) - 1);
+                next += m.size;
+            }
+            globals.forEach((name, addr) -> System.out.printf("  %-24s %06o%n", name, addr));
+            System.out.printf("%nLink successful in %.1f ms!%n", (System.nanoTime() - start) / 1e6);
+            System.out.println("=> Load File: " + out);
+            System.out.printf("=> Entry: %06o%n", entry[0]);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.err.println("An error occurred: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import javax.swing.table.AbstractTableModel;
+import java.util.BitSet;
+
+// Virtualized view over all of memory: cells are formatted lazily by the JTable, only for rows on screen
+public class MemoryTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Address", "Value", "Kind", "Symbol", "Source"};
+    private final CPU cpu;
+
+    public MemoryTableModel(CPU cpu) { this.cpu = cpu; }
+
+    @Override public int getRowCount() { return cpu.memory.length; }
+    @Override public int getColumnCount() { return COLUMNS.length; }
+    @Override public String getColumnName(int col) { return COLUMNS[col]; }
+
+    @Override
+    public Object getValueAt(int row, int col) {
+        if (col == 0) return String.format("%04o", row);
+        if (col == 1) return String.format("%06o", cpu.peekMemory(row));
+        DebugInfo debug = cpu.debugInfo;
+        if (debug == null) return "";
+        if (!debug.hasEntry(row)) return "";
+        if (col == 2) return debug.isCode(row) ? "code" : "data";
+        if (col == 3) return debug.symbolize(row); // LABEL or LABEL+n
+        return debug.sourceAt(row);
+    }
+
+    // Kind/symbol/source columns change wholesale when a new program (and sidecar) is loaded
+    public void debugInfoChanged() { fireTableDataChanged(); }
+
+    // Repaint only dirty words that fall inside the visible row range; the rest are
+    // formatted fresh whenever they scroll into view, so they can simply be dropped
+    public void refresh(int firstVisible, int lastVisible) {
+        BitSet dirty = cpu.drainDirtyWords();
+        if (firstVisible < 0 || lastVisible < firstVisible) return;
+        int row = dirty.nextSetBit(firstVisible);
+        while (row >= 0 && row <= lastVisible) {
+            int end = Math.min(dirty.nextClearBit(row) - 1, lastVisible);
+            fireTableRowsUpdated(row, end);
+            row = dirty.nextSetBit(end + 1);
+        }
+    }
+}
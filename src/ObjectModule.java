@@ -0,0 +1,109 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+// Relocatable object module written by "java Assembler -c" and consumed by the Linker.
+//
+// Text format, one record per line (addresses and values in octal, like the load file):
+//   C6461OBJ <version>
+//   MODULE <name>
+//   HASH <sha-256 of source + format version>
+//   SIZE <words>
+//   ENTRY <offset>
+//   EXPORT <name> <offset>
+//   IMPORT <name>
+//   TEXT <offset> <value>
+//   RELOC <offset> ABS|ADDR5 <addend> [symbol]
+// A RELOC without a symbol is module-relative: the linker adds the module base to the addend.
+// ABS patches the whole word (DATA), ADDR5 the 5-bit address field of an instruction.
+public class ObjectModule {
+
+    public static final int FORMAT_VERSION = 1;
+
+    public static class Relocation {
+        public final int offset;
+        public final boolean absolute;
+        public final int addend;
+        public final String symbol; // null = relative to this module's base
+
+        public Relocation(int offset, boolean absolute, int addend, String symbol) {
+            this.offset = offset; this.absolute = absolute; this.addend = addend; this.symbol = symbol;
+        }
+    }
+
+    public String name;
+    public String sourceHash = "";
+    public int size;
+    public int entry = -1;
+    public final Map<String, Integer> exports = new LinkedHashMap<>();
+    public final List<String> imports = new ArrayList<>();
+    public final List<int[]> words = new ArrayList<>();   // {offset, value}
+    public final List<Relocation> relocations = new ArrayList<>();
+
+    public void write(File file) throws IOException {
+        try (FileWriter w = new FileWriter(file)) {
+            w.write("C6461OBJ " + FORMAT_VERSION + "\n");
+            w.write("MODULE " + name + "\n");
+            w.write("HASH " + sourceHash + "\n");
+            w.write(String.format("SIZE %06o\n", size));
+            if (entry >= 0) w.write(String.format("ENTRY %06o\n", entry));
+            for (Map.Entry<String, Integer> e : exports.entrySet()) w.write(String.format("EXPORT %s %06o\n", e.getKey(), e.getValue()));
+            for (String sym : imports) w.write("IMPORT " + sym + "\n");
+            for (int[] word : words) w.write(String.format("TEXT %06o %06o\n", word[0], word[1]));
+            for (Relocation r : relocations) {
+                w.write(String.format("RELOC %06o %s %06o%s\n", r.offset, r.absolute ? "ABS" : "ADDR5", r.addend,
+                        r.symbol == null ? "" : " " + r.symbol));
+            }
+        }
+    }
+
+    public static ObjectModule read(File file) throws IOException {
+        ObjectModule m = new ObjectModule();
+        try (Scanner s = new Scanner(file)) {
+            if (!s.hasNextLine() || !s.nextLine().trim().equals("C6461OBJ " + FORMAT_VERSION)) {
+                throw new IOException("Not a version " + FORMAT_VERSION + " object module: " + file);
+            }
+            while (s.hasNextLine()) {
+                String[] p = s.nextLine().trim().split("\\s+");
+                switch (p[0]) {
+                    case "MODULE": m.name = p[1]; break;
+                    case "HASH": m.sourceHash = p.length > 1 ? p[1] : ""; break;
+                    case "SIZE": m.size = Integer.parseInt(p[1], 8); break;
+                    case "ENTRY": m.entry = Integer.parseInt(p[1], 8); break;
+                    case "EXPORT": m.exports.put(p[1], Integer.parseInt(p[2], 8)); break;
+                    case "IMPORT": m.imports.add(p[1]); break;
+                    case "TEXT": m.words.add(new int[]{Integer.parseInt(p[1], 8), Integer.parseInt(p[2], 8)}); break;
+                    case "RELOC":
+                        m.relocations.add(new Relocation(Integer.parseInt(p[1], 8), p[2].equals("ABS"),
+                                Integer.parseInt(p[3], 8), p.length > 4 ? p[4] : null));
+                        break;
+                    case "": break;
+                    default: throw new IOException("Unknown object record '" + p[0] + "' in " + file);
+                }
+            }
+        }
+        return m;
+    }
+
+    // Content hash used to skip re-assembling unchanged modules
+    public static String hashSource(File source) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(Files.readAllBytes(source.toPath()));
+            md.update(("C6461OBJ " + FORMAT_VERSION).getBytes());
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) sb.append(String.format("%02x", b & 0xFF));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+}
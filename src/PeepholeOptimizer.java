@@ -0,0 +1,454 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Optional source-level optimization pass run before Pass 1 (java Assembler -O ...).
+//
+// Rules:
+//   - dead stores:        STR to A immediately overwritten by another store to A
+//   - redundant reloads:  LDR r,0,A after STR/LDR r,0,A with nothing in between touching r or A
+//   - constant folding:   LDR/AMR/SMR of an immutable small DATA constant -> LDA/AIR/SIR
+//   - jump threading:     a direct jump whose target is a direct JMA jumps to the final target
+//   - unreachable code:   unlabeled instructions following HLT/JMA up to the next label
+//
+// Removing a statement shifts everything after it in the same LOC block, so a removal is only
+// applied when no numeric address, indexed base or address-taken data label points into the
+// shifted range. Labels are re-resolved by the normal two passes afterwards.
+public class PeepholeOptimizer {
+
+    private static final Pattern LABEL_PATTERN = Pattern.compile("^(\\w+):");
+    private static final Set<String> JUMPS = Set.of("JZ", "JNE", "JCC", "JMA", "JSR", "SOB", "JGE", "BEQ");
+    private static final Set<String> LOADS = Set.of("LDR", "AMR", "SMR", "LDX", "FADD", "FSUB", "CNVRT", "LDFR");
+    private static final Set<String> STORES = Set.of("STR", "STX", "STFR");
+    private static final Set<String> VECTOR = Set.of("VADD", "VSUB"); // c(EA), c(EA+1) point at the vectors
+    private static final Set<String> MEMORY_REF = Set.of("LDR", "STR", "LDA", "AMR", "SMR", "LDX", "STX",
+            "JZ", "JNE", "JCC", "JMA", "JSR", "SOB", "JGE", "BEQ",
+            "FADD", "FSUB", "VADD", "VSUB", "CNVRT", "LDFR", "STFR");
+    private static final Set<String> REGISTER_ONLY = Set.of("AIR", "SIR", "MLT", "DVD", "TRR", "AND", "ORR",
+            "NOT", "SRC", "RRC", "IN", "OUT", "CHK");
+    private static final Set<String> NO_OPERAND_ACCESS = Set.of("HLT", "RFS", "TRAP");
+    private static final int RESERVED_WORDS = 6; // trap/fault vectors and saved PC live below this
+
+    // One assembled statement (instruction or DATA) of the source
+    private static final class Stmt {
+        int lineIndex, address, block;
+        String label = "";
+        String op;
+        String[] ops;
+        int r, ix, i;
+        String target;   // address operand of memory-reference forms, else null
+        boolean removed;
+    }
+
+    // One report line; removals found unsafe to apply are flipped to kept
+    private static final class Change {
+        final Stmt stmt;
+        final String rule, detail;
+        final int saved;
+        boolean kept;
+        Change(Stmt stmt, String rule, String detail, int saved) {
+            this.stmt = stmt; this.rule = rule; this.detail = detail; this.saved = saved;
+        }
+    }
+
+    private final List<String> lines;
+    private final List<Stmt> stmts = new ArrayList<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final Map<Integer, Stmt> byAddress = new HashMap<>();
+    private final Set<Integer> labeledAddresses = new HashSet<>();
+    private final Set<Integer> addressTaken = new HashSet<>();
+    private final List<Integer> blockEnds = new ArrayList<>();
+    private final List<int[]> pinnedRanges = new ArrayList<>();
+    private final Set<Integer> directStores = new HashSet<>();
+    private int indexedStoreMin = Integer.MAX_VALUE;
+    private boolean unknownStores = false;
+    private boolean deviceStores = false; // OUT starting a DMA transfer or reprogramming the MMU
+
+    private final List<Change> changes = new ArrayList<>();
+    private int removedCount, rewrittenCount, skippedCount, accessesSaved;
+
+    public PeepholeOptimizer(List<String> sourceLines) {
+        this.lines = new ArrayList<>(sourceLines);
+    }
+
+    public List<String> optimize() {
+        parse();
+        analyze();
+        threadJumps();
+        foldConstants();
+        removeUnreachable();
+        removeRedundantMemoryOps();
+        applyRemovals();
+        return lines;
+    }
+
+    // ------------------------------------------------------------
+    // Parsing (mirrors Pass 1 address assignment)
+    // ------------------------------------------------------------
+    private void parse() {
+        int locationCounter = 0;
+        int block = 0;
+        blockEnds.add(-1);
+        for (int n = 0; n < lines.size(); n++) {
+            String line = Assembler.stripComments(lines.get(n)).trim();
+            if (line.isEmpty()) continue;
+            String label = "";
+            Matcher m = LABEL_PATTERN.matcher(line);
+            if (m.find()) {
+                label = m.group(1);
+                labels.put(label, locationCounter);
+                labeledAddresses.add(locationCounter);
+                line = line.substring(label.length() + 1).trim();
+            }
+            if (line.isEmpty()) continue;
+
+            String[] parts = line.split("\\s+", 2);
+            String op = parts[0].toUpperCase();
+            if (op.equals("LOC")) {
+                locationCounter = Assembler.parseIntClean(parts.length > 1 ? parts[1] : "");
+                block++;
+                blockEnds.add(-1);
+                continue;
+            }
+            if (op.equals("IMPORT") || op.equals("EXPORT")) continue;
+            Stmt s = new Stmt();
+            s.lineIndex = n;
+            s.address = locationCounter++;
+            s.block = block;
+            s.label = label;
+            setInstruction(s, op, Assembler.splitOperands(parts.length > 1 ? parts[1] : ""));
+            stmts.add(s);
+            byAddress.put(s.address, s);
+            blockEnds.set(block, s.address);
+        }
+    }
+
+    private void setInstruction(Stmt s, String op, String[] ops) {
+        s.op = op;
+        s.ops = ops;
+        s.r = 0; s.ix = 0; s.i = 0; s.target = null;
+        try {
+            if (op.equals("LDX") || op.equals("STX")) {
+                if (ops.length >= 2) {
+                    s.ix = Assembler.parseIntClean(ops[0]);
+                    s.target = ops[1];
+                    s.i = ops.length >= 3 && Assembler.parseIntClean(ops[2]) != 0 ? 1 : 0;
+                }
+            } else if (MEMORY_REF.contains(op)) {
+                if (ops.length == 1) {
+                    s.target = ops[0];
+                } else if (ops.length == 2) {
+                    s.r = Assembler.parseIntClean(ops[0]);
+                    s.target = ops[1];
+                } else if (ops.length >= 3) {
+                    s.r = Assembler.parseIntClean(ops[0]);
+                    s.ix = Assembler.parseIntClean(ops[1]);
+                    s.target = ops[2];
+                    s.i = ops.length >= 4 && Assembler.parseIntClean(ops[3]) != 0 ? 1 : 0;
+                }
+            } else if (REGISTER_ONLY.contains(op) && ops.length >= 1) {
+                s.r = Assembler.parseIntClean(ops[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            // Malformed operands are left for Pass 2 to report; never optimize around them
+            s.op = "?" + op;
+        }
+    }
+
+    // Label or numeric literal; null when it cannot be resolved
+    private Integer resolve(String operand) {
+        if (operand == null) return null;
+        String cleaned = operand.trim();
+        if (labels.containsKey(cleaned)) return labels.get(cleaned);
+        return Assembler.isInteger(cleaned) ? Integer.valueOf(Integer.parseInt(cleaned)) : null;
+    }
+
+    private boolean isLabelOperand(String operand) {
+        return operand != null && labels.containsKey(operand.trim());
+    }
+
+    // ------------------------------------------------------------
+    // Program-wide facts: pinned address ranges and possible store targets
+    // ------------------------------------------------------------
+    private void analyze() {
+        for (Stmt s : stmts) {
+            if (s.op.equals("DATA")) {
+                String operand = s.ops.length > 0 ? s.ops[0] : null;
+                Integer v = resolve(operand);
+                if (v == null) continue;
+                if (isLabelOperand(operand)) {
+                    addressTaken.add(v);
+                    Stmt pointee = byAddress.get(v);
+                    // A pointer to data may be indexed from, so the layout after it is fixed
+                    if (pointee != null && pointee.op.equals("DATA")) pinRestOfBlock(v);
+                } else {
+                    pin(v, v);
+                }
+                continue;
+            }
+            if (isDeviceStore(s)) {
+                unknownStores = true;
+                deviceStores = true;
+                continue;
+            }
+            if (s.target == null) {
+                if (!MEMORY_REF.contains(s.op) && !REGISTER_ONLY.contains(s.op) && !NO_OPERAND_ACCESS.contains(s.op)) {
+                    unknownStores = true;
+                }
+                continue;
+            }
+            boolean indexed = s.ix != 0 && !s.op.equals("LDX") && !s.op.equals("STX");
+            Integer base = resolve(s.target);
+            if (base == null) { unknownStores = true; continue; }
+            if (indexed) pinRestOfBlock(base);
+            else if (!isLabelOperand(s.target)) pin(base, VECTOR.contains(s.op) ? base + 1 : base);
+
+            if (VECTOR.contains(s.op)) unknownStores = true;
+            if (STORES.contains(s.op)) {
+                if (s.i == 1) unknownStores = true;
+                else if (indexed) indexedStoreMin = Math.min(indexedStoreMin, base);
+                else directStores.add(base);
+            }
+        }
+    }
+
+    // OUT to the DMA controller or the MMU lets memory change outside any store in the source:
+    // DMA copies into guest memory alongside later instructions, the MMU pages frames in and out
+    private boolean isDeviceStore(Stmt s) {
+        if (!s.op.equals("OUT")) return false;
+        Integer dev = s.ops.length >= 2 ? resolve(s.ops[1]) : null;
+        return dev == null || dev == DmaController.DEVICE || dev == VirtualMemory.DEVICE;
+    }
+
+    private void pin(int lo, int hi) { pinnedRanges.add(new int[]{lo, hi}); }
+
+    private void pinRestOfBlock(int addr) {
+        Stmt s = byAddress.get(addr);
+        pin(addr, s == null ? addr : blockEnds.get(s.block));
+    }
+
+    // True when no store in the program can ever change the word at addr
+    private boolean isImmutable(int addr) {
+        return addr >= RESERVED_WORDS && !unknownStores && !directStores.contains(addr)
+                && addr < indexedStoreMin && !addressTaken.contains(addr);
+    }
+
+    // Removing s shifts [s.address, end of its block]; refuse if anything is pinned there
+    private boolean canShift(Stmt s) {
+        int lo = s.address, hi = blockEnds.get(s.block);
+        for (int[] p : pinnedRanges) {
+            if (p[0] <= hi && p[1] >= lo) return false;
+        }
+        return true;
+    }
+
+    private boolean isDirect(Stmt s) { return s.target != null && s.ix == 0 && s.i == 0; }
+
+    // ------------------------------------------------------------
+    // Rules
+    // ------------------------------------------------------------
+    private void threadJumps() {
+        for (Stmt s : stmts) {
+            if (!JUMPS.contains(s.op) || !isDirect(s)) continue;
+            String finalTarget = s.target;
+            Integer t = resolve(finalTarget);
+            Set<Integer> seen = new HashSet<>();
+            int hops = 0;
+            while (t != null && seen.add(t)) {
+                Stmt next = byAddress.get(t);
+                if (next == null || next == s || !next.op.equals("JMA") || !isDirect(next) || !isImmutable(t)) break;
+                finalTarget = next.target;
+                t = resolve(finalTarget);
+                hops++;
+            }
+            if (hops == 0) continue;
+            String[] ops = s.ops.clone();
+            ops[ops.length == 1 ? 0 : ops.length == 2 ? 1 : 2] = finalTarget.trim();
+            rewrite(s, s.op, ops, "jump threading",
+                    "thread " + s.op + " " + s.target.trim() + " -> " + finalTarget.trim(), hops);
+        }
+    }
+
+    private void foldConstants() {
+        for (Stmt s : stmts) {
+            if (!(s.op.equals("LDR") || s.op.equals("AMR") || s.op.equals("SMR")) || !isDirect(s)) continue;
+            Integer t = resolve(s.target);
+            if (t == null || !isImmutable(t)) continue;
+            Stmt data = byAddress.get(t);
+            if (data == null || !data.op.equals("DATA") || data.ops.length == 0
+                    || !Assembler.isInteger(data.ops[0])) continue;
+            int v = Integer.parseInt(data.ops[0].trim());
+            if (s.op.equals("LDR") && v >= 0 && v <= 31) {
+                rewrite(s, "LDA", new String[]{"" + s.r, "0", "" + v}, "constant folding", "LDR -> LDA " + v, 1);
+            } else if (s.op.equals("AMR") && v >= 0 && v <= 15) {
+                rewrite(s, "AIR", new String[]{"" + s.r, "" + v}, "constant folding", "AMR -> AIR " + v, 1);
+            } else if (s.op.equals("SMR") && v >= 0 && v <= 15) {
+                rewrite(s, "SIR", new String[]{"" + s.r, "" + v}, "constant folding", "SMR -> SIR " + v, 1);
+            }
+        }
+    }
+
+    private void removeUnreachable() {
+        for (int k = 0; k < stmts.size(); k++) {
+            Stmt s = stmts.get(k);
+            if (s.removed || !(s.op.equals("HLT") || s.op.equals("JMA"))) continue;
+            for (int j = k + 1; j < stmts.size(); j++) {
+                Stmt u = stmts.get(j);
+                if (u.block != s.block || u.op.equals("DATA") || !u.label.isEmpty()
+                        || labeledAddresses.contains(u.address) || addressTaken.contains(u.address)) break;
+                remove(u, "unreachable code", "after " + s.op + " at " + String.format("%04o", s.address), 0);
+            }
+        }
+    }
+
+    private void removeRedundantMemoryOps() {
+        for (int k = 0; k < stmts.size(); k++) {
+            Stmt s = stmts.get(k);
+            if (s.removed || !isDirect(s) || !(s.op.equals("STR") || s.op.equals("LDR"))) continue;
+            Integer a = resolve(s.target);
+            if (a == null) continue;
+            boolean reloadLive = !deviceStores;   // r still holds c(A)
+            boolean storeLive = s.op.equals("STR");
+            for (int j = k + 1; j < stmts.size() && (reloadLive || storeLive); j++) {
+                Stmt u = stmts.get(j);
+                if (u.removed) continue;
+                if (u.block != s.block || u.address == a || u.op.equals("DATA")) break;
+                boolean entered = labeledAddresses.contains(u.address) || addressTaken.contains(u.address);
+                if (reloadLive && !entered && u.op.equals("LDR") && isDirect(u) && u.r == s.r && a.equals(resolve(u.target))) {
+                    remove(u, "redundant reload", "r" + s.r + " already holds " + s.target.trim(), 2);
+                    continue;
+                }
+                if (storeLive && (u.op.equals("STR") || u.op.equals("STX")) && isDirect(u) && a.equals(resolve(u.target))) {
+                    remove(s, "dead store", "overwritten at " + String.format("%04o", u.address), 2);
+                    break;
+                }
+                if (!REGISTER_ONLY.contains(u.op) && !MEMORY_REF.contains(u.op)) break;
+                if (JUMPS.contains(u.op) || mayRead(u, a)) break;
+                if (entered) reloadLive = false;
+                if (mayWrite(u, a) || writesRegister(u, s.r)) reloadLive = false;
+            }
+        }
+    }
+
+    private boolean mayRead(Stmt u, int a) {
+        if (u.target == null) return false;
+        if (u.i == 1 || VECTOR.contains(u.op)) return true;
+        boolean loads = LOADS.contains(u.op);
+        if (!loads) return false;
+        Integer base = resolve(u.target);
+        if (base == null) return true;
+        boolean indexed = u.ix != 0 && !u.op.equals("LDX");
+        return indexed ? base <= a : base == a;
+    }
+
+    private boolean mayWrite(Stmt u, int a) {
+        if (VECTOR.contains(u.op)) return true;
+        if (!STORES.contains(u.op)) return false;
+        if (u.i == 1) return true;
+        Integer base = resolve(u.target);
+        if (base == null) return true;
+        boolean indexed = u.ix != 0 && !u.op.equals("STX");
+        return indexed ? base <= a : base == a;
+    }
+
+    private boolean writesRegister(Stmt u, int r) {
+        switch (u.op) {
+            case "LDR": case "LDA": case "AMR": case "SMR": case "AIR": case "SIR":
+            case "IN": case "CHK": case "AND": case "ORR": case "NOT": case "SRC": case "RRC": case "CNVRT":
+                return u.r == r;
+            case "MLT": case "DVD":
+                return u.r == r || u.r + 1 == r;
+            case "JSR": return r == 3;
+            case "RFS": return r == 0;
+            default: return false;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Edits and report
+    // ------------------------------------------------------------
+    private void rewrite(Stmt s, String op, String[] ops, String rule, String detail, int saved) {
+        String line = lines.get(s.lineIndex);
+        String original = withoutLabel(Assembler.stripComments(line).trim());
+        String code = op + " " + String.join(",", ops);
+        lines.set(s.lineIndex, leadingPart(line) + code + "\t; opt: was " + original);
+        setInstruction(s, op, ops);
+        changes.add(new Change(s, rule, detail, saved));
+        rewrittenCount++;
+        accessesSaved += saved;
+    }
+
+    private void remove(Stmt s, String rule, String detail, int saved) {
+        s.removed = true;
+        changes.add(new Change(s, rule, detail, saved));
+        removedCount++;
+        accessesSaved += saved;
+    }
+
+    // Removals that would move fixed-address references are undone here rather than at match time,
+    // so the report can show them as kept
+    private void applyRemovals() {
+        for (Change c : changes) {
+            Stmt s = c.stmt;
+            if (!s.removed || canShift(s)) continue;
+            s.removed = false;
+            c.kept = true;
+            removedCount--;
+            skippedCount++;
+            accessesSaved -= c.saved;
+        }
+        for (Stmt s : stmts) {
+            if (!s.removed) continue;
+            String line = lines.get(s.lineIndex);
+            String original = withoutLabel(Assembler.stripComments(line).trim());
+            lines.set(s.lineIndex, leadingPart(line) + "; opt: removed " + original);
+        }
+        changes.sort((a, b) -> Integer.compare(a.stmt.address, b.stmt.address));
+    }
+
+    private static String withoutLabel(String code) {
+        Matcher m = LABEL_PATTERN.matcher(code);
+        return m.find() ? code.substring(m.end()).trim() : code;
+    }
+
+    // Indentation plus any label, so edited lines keep their place in the listing
+    private static String leadingPart(String line) {
+        int n = 0;
+        while (n < line.length() && Character.isWhitespace(line.charAt(n))) n++;
+        Matcher m = LABEL_PATTERN.matcher(line.substring(n));
+        if (!m.find()) return line.substring(0, n);
+        int end = n + m.end();
+        while (end < line.length() && Character.isWhitespace(line.charAt(end))) end++;
+        return line.substring(0, end);
+    }
+
+    public int getRemovedCount() { return removedCount; }
+
+    public int getRewrittenCount() { return rewrittenCount; }
+
+    public int getKeptCount() { return skippedCount; }
+
+    public String getSummary() {
+        return String.format("Peephole: %d removed, %d rewritten, %d kept, ~%d memory accesses saved per pass",
+                removedCount, rewrittenCount, skippedCount, accessesSaved);
+    }
+
+    public void writeReport(String fileName) throws IOException {
+        try (FileWriter w = new FileWriter(fileName)) {
+            w.write("ADDR  LINE      RULE               DETAIL                           EST. MEMORY ACCESSES\n");
+            for (Change c : changes) {
+                w.write(String.format("%04o  line %-4d %-18s %-32s %s\n", c.stmt.address, c.stmt.lineIndex + 1,
+                        c.rule, c.detail, c.kept ? "kept (fixed address refs)" : "saves " + c.saved));
+            }
+            w.write("\n" + getSummary() + "\n");
+            w.write("Estimates count instruction fetches and operand accesses avoided each time the site executes.\n");
+        }
+    }
+}
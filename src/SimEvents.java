@@ -0,0 +1,113 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+// Custom Java Flight Recorder events for the simulator. Nothing here runs per instruction:
+// MIPS is sampled periodically from CPU.instructionCount and cache misses are aggregated
+// into windows by Cache before an event is ever allocated.
+public final class SimEvents {
+
+    private SimEvents() {}
+
+    @Name("cs6461.Run") @Label("Simulator Run") @Category("CS6461 Simulator") @StackTrace(false)
+    @Description("Continuous run of the CPU from start until halt, fault, pause or breakpoint")
+    public static class Run extends Event {
+        @Label("Start PC") public int startPC;
+        @Label("Instructions") public long instructions;
+        @Label("Stop Reason") public String stopReason;
+    }
+
+    @Name("cs6461.IPL") @Label("IPL") @Category("CS6461 Simulator") @StackTrace(false)
+    public static class Ipl extends Event {
+        @Label("Program") public String program;
+        @Label("Words Loaded") public int words;
+    }
+
+    @Name("cs6461.MipsSample") @Label("MIPS Sample") @Category("CS6461 Simulator") @StackTrace(false)
+    @Period("1 s")
+    public static class MipsSample extends Event {
+        @Label("MIPS") public double mips;
+        @Label("Total Instructions") public long instructions;
+    }
+
+    @Name("cs6461.CacheMissBurst") @Label("Cache Miss Burst") @Category("CS6461 Simulator") @StackTrace(false)
+    @Description("A window of cache references whose miss count reached the burst threshold")
+    public static class CacheMissBurst extends Event {
+        @Label("Window References") public int references;
+        @Label("Window Misses") public int misses;
+        @Label("PC") public int pc;
+    }
+
+    @Name("cs6461.Fault") @Label("Machine Fault") @Category("CS6461 Simulator") @StackTrace(false)
+    public static class Fault extends Event {
+        @Label("MFR Code") public int code;
+        @Label("PC") public int pc;
+    }
+
+    @Name("cs6461.DeviceStall") @Label("Device Stall") @Category("CS6461 Simulator") @StackTrace(false)
+    @Description("Time the guest spent blocked waiting on a device")
+    public static class DeviceStall extends Event {
+        @Label("Device") public int device;
+    }
+
+    @Name("cs6461.DmaTransfer") @Label("DMA Transfer") @Category("CS6461 Simulator") @StackTrace(false)
+    @Description("Block transfer by the DMA controller (Device 3), from programming to completion")
+    public static class DmaTransfer extends Event {
+        @Label("Source Device") public int device;
+        @Label("Address") public int address;
+        @Label("Words") public int words;
+        @Label("Aborted") public boolean aborted;
+    }
+
+    // ------------------------------------------------------------
+    // Periodic MIPS sampling of the most recently created CPU
+    // ------------------------------------------------------------
+    private static volatile CPU sampled;
+    private static long lastCount, lastNanos;
+
+    static {
+        FlightRecorder.addPeriodicEvent(MipsSample.class, SimEvents::sampleMips);
+    }
+
+    public static void watch(CPU cpu) {
+        synchronized (SimEvents.class) {
+            sampled = cpu;
+            lastCount = cpu.instructionCount;
+            lastNanos = System.nanoTime();
+        }
+    }
+
+    private static synchronized void sampleMips() {
+        CPU cpu = sampled;
+        if (cpu == null) return;
+        long count = cpu.instructionCount, now = System.nanoTime();
+        MipsSample e = new MipsSample();
+        e.instructions = count;
+        e.mips = now > lastNanos ? (count - lastCount) * 1e3 / (now - lastNanos) : 0;
+        e.commit();
+        lastCount = count;
+        lastNanos = now;
+    }
+
+    public static void fault(int code, int pc) {
+        Fault e = new Fault();
+        if (!e.isEnabled()) return;
+        e.code = code;
+        e.pc = pc;
+        e.commit();
+    }
+
+    public static void cacheMissBurst(int references, int misses, int pc) {
+        CacheMissBurst e = new CacheMissBurst();
+        if (!e.isEnabled()) return;
+        e.references = references;
+        e.misses = misses;
+        e.pc = pc;
+        e.commit();
+    }
+}
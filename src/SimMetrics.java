@@ -0,0 +1,33 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Small counter/gauge registry for one simulator instance. Hot-path values stay plain fields on
+// CPU/Cache and are exposed as gauges; counters are for events rare enough to pay for a LongAdder.
+public class SimMetrics {
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, DoubleSupplier> gauges = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name) { return counters.computeIfAbsent(name, k -> new LongAdder()); }
+
+    public void gauge(String name, DoubleSupplier supplier) { gauges.put(name, supplier); }
+
+    public Map<String, Double> snapshot() {
+        Map<String, Double> values = new TreeMap<>();
+        counters.forEach((name, c) -> values.put(name, (double) c.sum()));
+        gauges.forEach((name, g) -> values.put(name, g.getAsDouble()));
+        return values;
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder();
+        snapshot().forEach((name, v) -> {
+            if (v == Math.rint(v) && !Double.isInfinite(v)) sb.append(String.format("%-28s %d%n", name, v.longValue()));
+            else sb.append(String.format("%-28s %.4f%n", name, v));
+        });
+        return sb.toString();
+    }
+}
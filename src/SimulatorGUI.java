@@ -1,29 +1,30 @@
 import javax.swing.*;
 import java.awt.*;
 import java.io.File;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.Scanner;
 
-public class SimulatorGUI extends JFrame {
+public class SimulatorGUI extends JFrame implements IODevices {
 
     private JTextField pcField, irField;
     private final JTextField[] gprFields = new JTextField[4];
     private final JTextField[] ixrFields = new JTextField[3];
-    private JTextArea consoleOutputArea, memoryDisplayArea, cacheDisplayArea, printerOutputArea;
+    private final JTextField[] frFields = new JTextField[2];
+    private JTextArea consoleOutputArea, printerOutputArea;
+    private JTable memoryTable, cacheTable;
+    private MemoryTableModel memoryModel;
+    private CacheTableModel cacheModel;
     private JTextField keyboardInputField, memoryAddressField, memoryValueField;
 
     private JButton keyboardSubmitButton;
     private final CPU cpu;
     private boolean isRunning = false;
     private boolean waitingForInput = false;
+    private SimEvents.DeviceStall keyboardStall; // open while the guest waits on Device 0
 
     private int keyboardInputBuffer = -1;
-    private final Queue<Integer> fileInputBuffer = new LinkedList<>();
 
     public SimulatorGUI() {
         cpu = new CPU();
-        cpu.setGUI(this);
+        cpu.setDevices(this);
         setTitle("TEAM 7 - CSCI 6461 CPU Simulator (Part 3)");
         setSize(1200, 850);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -77,6 +78,7 @@ public class SimulatorGUI extends JFrame {
         addRegisterField(panel, "MFR:"); addRegisterField(panel, "CC:");
         for(int i=0; i<4; i++) gprFields[i] = addRegisterField(panel, "GPR"+i+":");
         for(int i=0; i<3; i++) ixrFields[i] = addRegisterField(panel, "IXR"+(i+1)+":");
+        for(int i=0; i<2; i++) frFields[i] = addRegisterField(panel, "FR"+i+":");
         return panel;
     }
 
@@ -93,10 +95,22 @@ public class SimulatorGUI extends JFrame {
         top.add(new JLabel("Addr:")); top.add(memoryAddressField); top.add(go);
         top.add(new JLabel("Val:")); top.add(memoryValueField); top.add(dep);
         p.add(top, BorderLayout.NORTH);
-        memoryDisplayArea = new JTextArea(15,30); p.add(new JScrollPane(memoryDisplayArea), BorderLayout.CENTER);
-        go.addActionListener(e -> updateMemoryView());
+        memoryModel = new MemoryTableModel(cpu);
+        memoryTable = new JTable(memoryModel);
+        memoryTable.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane memoryScroll = new JScrollPane(memoryTable);
+        memoryScroll.getViewport().addChangeListener(e -> refreshMemoryView());
+        p.add(memoryScroll, BorderLayout.CENTER);
+        go.addActionListener(e -> {
+            try { scrollMemoryViewTo(Integer.parseInt(memoryAddressField.getText(), 8)); }
+            catch(Exception ex){}
+        });
         dep.addActionListener(e -> {
-            try { cpu.writeMemory(Integer.parseInt(memoryAddressField.getText(),8), Integer.parseInt(memoryValueField.getText(),8)); updateGUI(); }
+            try { // physical, like the table
+                int addr = Integer.parseInt(memoryAddressField.getText(), 8), val = Integer.parseInt(memoryValueField.getText(), 8);
+                synchronized (cpu) { cpu.pokeMemory(addr, val); }
+                updateGUI();
+            }
             catch(Exception ex){}
         });
         return p;
@@ -105,7 +119,10 @@ public class SimulatorGUI extends JFrame {
     private JPanel createCachePanel() {
         JPanel p = new JPanel(new BorderLayout());
         p.setBorder(BorderFactory.createTitledBorder("Cache"));
-        cacheDisplayArea = new JTextArea(15,30); p.add(new JScrollPane(cacheDisplayArea));
+        cacheModel = new CacheTableModel(cpu.cache);
+        cacheTable = new JTable(cacheModel);
+        cacheTable.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        p.add(new JScrollPane(cacheTable));
         return p;
     }
 
@@ -144,72 +161,72 @@ public class SimulatorGUI extends JFrame {
 
             consoleOutputArea.append("Input buffered: " + keyboardInputBuffer + "\n");
             keyboardInputField.setText("");
+            endKeyboardStall();
             if(waitingForInput) { waitingForInput = false; runAction(); }
         });
 
         return panel;
     }
 
-    public int readFromDevice(int devId) {
+    @Override public int readFromDevice(int devId) {
         if (devId == 0) {
             if (keyboardInputBuffer == -1) {
                 if (isRunning) { isRunning = false; waitingForInput = true; }
+                beginKeyboardStall();
                 consoleOutputArea.append("Waiting for Keyboard Input...\n");
                 return 0;
             }
             int val = keyboardInputBuffer; keyboardInputBuffer = -1;
             return val;
-        } else if (devId == 2) {
-            if (fileInputBuffer.isEmpty()) return 0;
-            return fileInputBuffer.poll();
         }
         return 0;
     }
 
-    public void writeToDevice(int devId, int val) {
+    @Override public void writeToDevice(int devId, int val) {
         if (devId == 1) { // Printer
             // FIX: Simply cast to char and append. This handles letters, spaces, and newlines.
             printerOutputArea.append(String.valueOf((char)val));
         }
     }
 
-    public boolean isWaitingForInput() { return waitingForInput; }
+    @Override public boolean isWaitingForInput() { return waitingForInput; }
+
+    private void beginKeyboardStall() {
+        if (keyboardStall != null) return;
+        cpu.metrics.counter("device.stalls").increment();
+        keyboardStall = new SimEvents.DeviceStall();
+        keyboardStall.device = 0;
+        keyboardStall.begin();
+    }
+
+    private void endKeyboardStall() {
+        if (keyboardStall == null) return;
+        keyboardStall.commit();
+        keyboardStall = null;
+    }
 
     private void loadParagraphAction() {
         JFileChooser fc = new JFileChooser(".");
         if (fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try (Scanner s = new Scanner(fc.getSelectedFile())) {
-                fileInputBuffer.clear();
-                while(s.hasNextLine()) {
-                    String line = s.nextLine() + "\n";
-                    for(char c : line.toCharArray()) fileInputBuffer.add((int)c);
-                }
-                fileInputBuffer.add(0);
-                consoleOutputArea.append("Paragraph file loaded into Device 2 buffer.\n");
+            try {
+                synchronized (cpu) { cpu.fileReader.open(fc.getSelectedFile()); }
+                consoleOutputArea.append("Paragraph file opened on Device 2 (streamed on demand).\n");
             } catch (Exception ex) {
                 consoleOutputArea.append("Error loading paragraph: " + ex.getMessage() + "\n");
             }
         }
     }
 
+    // Takes the CPU lock like Step and Deposit: a GDB continue may be running between batches
     private void iplAction() {
-        cpu.reset();
+        synchronized (cpu) { cpu.reset(); }
         JFileChooser fc = new JFileChooser(".");
         if (fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
-            try (Scanner s = new Scanner(fc.getSelectedFile())) {
-                boolean first=true;
-                while(s.hasNextLine()) {
-                    String line = s.nextLine().trim();
-                    if(line.isEmpty()) continue;
-                    String[] p = line.split("\\s+");
-                    if(p.length==2) {
-                        int addr = Integer.parseInt(p[0],8);
-                        int val = Integer.parseInt(p[1],8);
-                        cpu.writeToMemory(addr, val);
-                        if(first) { cpu.PC = addr; first=false; }
-                    }
-                }
+            try {
+                synchronized (cpu) { cpu.loadProgram(fc.getSelectedFile()); }
+                memoryModel.debugInfoChanged();
                 consoleOutputArea.append("Program loaded.\n");
+                if (cpu.debugInfo != null) consoleOutputArea.append("Debug info loaded from " + cpu.debugInfo.getSourceName() + ".\n");
                 updateGUI();
             } catch (Exception ex) {
                 consoleOutputArea.append("Error loading program: " + ex.getMessage() + "\n");
@@ -222,13 +239,21 @@ public class SimulatorGUI extends JFrame {
         isRunning = true;
         SwingWorker<Void,Void> worker = new SwingWorker<>() {
             @Override protected Void doInBackground() {
+                SimEvents.Run run = new SimEvents.Run();
+                run.begin();
+                run.startPC = cpu.PC;
+                long start = cpu.instructionCount;
+                boolean cont = true;
                 while(isRunning && cpu.MFR == 0) {
-                    boolean cont = cpu.executeInstruction();
-                    if (cpu.gui.isWaitingForInput()) { isRunning=false; waitingForInput=true; }
+                    synchronized (cpu) { cont = cpu.executeInstruction(); }
+                    if (isWaitingForInput()) { isRunning=false; waitingForInput=true; }
                     if (!cont) isRunning=false;
                     publish();
                     try { Thread.sleep(2); } catch(Exception e){}
                 }
+                run.instructions = cpu.instructionCount - start;
+                run.stopReason = cpu.MFR != 0 ? "fault " + cpu.MFR : waitingForInput ? "input" : !cont ? "halt" : "user halt";
+                run.commit();
                 return null;
             }
             @Override protected void process(java.util.List<Void> c) { updateGUI(); }
@@ -243,7 +268,7 @@ public class SimulatorGUI extends JFrame {
 
     private void singleStepAction() {
         if(waitingForInput) { consoleOutputArea.append("Waiting for input.\n"); return; }
-        cpu.executeInstruction();
+        synchronized (cpu) { cpu.executeInstruction(); }
         updateGUI();
     }
 
@@ -252,24 +277,40 @@ public class SimulatorGUI extends JFrame {
         irField.setText(String.format("%06o", cpu.IR));
         for(int i=0; i<4; i++) gprFields[i].setText(String.format("%06o", cpu.getGPR(i)));
         for(int i=0; i<3; i++) ixrFields[i].setText(String.format("%06o", cpu.getIXR(i+1)));
+        for(int i=0; i<2; i++) frFields[i].setText(String.format("%06o", cpu.getFR(i)));
 
-        if (cpu.cache != null) {
-            cacheDisplayArea.setText(cpu.cache.getCacheStateForGUI());
-        }
+        cacheModel.refresh();
+        refreshMemoryView();
+    }
 
-        updateMemoryView();
+    private void refreshMemoryView() {
+        Rectangle view = memoryTable.getVisibleRect();
+        int first = memoryTable.rowAtPoint(view.getLocation());
+        int last = memoryTable.rowAtPoint(new Point(view.x, view.y + view.height - 1));
+        if (last < 0) last = memoryModel.getRowCount() - 1;
+        memoryModel.refresh(first, last);
     }
 
-    private void updateMemoryView() {
-        try {
-            int start = Integer.parseInt(memoryAddressField.getText().isEmpty()?"0":memoryAddressField.getText(), 8);
-            StringBuilder sb = new StringBuilder();
-            for(int i=0; i<20; i++) {
-                if(start+i < 2048) sb.append(String.format("%04o: %06o\n", start+i, cpu.fetchFromMemory(start+i)));
-            }
-            memoryDisplayArea.setText(sb.toString());
-        } catch(Exception e) {}
+    private void scrollMemoryViewTo(int addr) {
+        if (addr < 0 || addr >= memoryModel.getRowCount()) return;
+        memoryTable.setRowSelectionInterval(addr, addr);
+        memoryTable.scrollRectToVisible(memoryTable.getCellRect(addr, 0, true));
     }
 
-    public static void main(String[] args) { SwingUtilities.invokeLater(SimulatorGUI::new); }
+    // Optional GDB remote stub beside the GUI: java SimulatorGUI --gdb [port]
+    private void startGdbServer(int port) {
+        GdbServer server = new GdbServer(cpu, port);
+        server.setStopListener(() -> SwingUtilities.invokeLater(this::updateGUI));
+        server.start();
+        consoleOutputArea.append("GDB stub listening on localhost:" + port + "\n");
+    }
+
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(() -> {
+            SimulatorGUI gui = new SimulatorGUI();
+            if (args.length > 0 && args[0].equals("--gdb")) {
+                gui.startGdbServer(args.length > 1 ? Integer.parseInt(args[1]) : GdbServer.DEFAULT_PORT);
+            }
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,297 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+// Optional paged virtual memory (Device 4, the MMU).
+//
+// Off after reset: addresses are physical. The guest builds a page table in physical memory and
+// switches translation on with three successive OUT r,4 writes: page-table base (PTBR, a physical
+// address), first frame of the paging pool, number of pool frames. A count of 0 switches it off.
+// Every reprogramming writes dirty pool pages back, marks them non-resident and flushes the TLB;
+// it is also how a guest that edits its page table makes the change visible.
+//
+// Virtual space is 4096 words in 64 pages of 64 words; physical memory is 32 frames. The PTE for
+// page p is the word at PTBR + p:
+//   bit 15 V  resident in frame (bits 4-0)
+//   bit 14 P  page exists; P without V lives in the backing store and is paged in on first use
+//   bit 13 W  writable
+//   bit 12 D  written since it was paged in (set by the MMU)
+// Non-resident pages are brought into pool frames, which are reused first-in first-out; a dirty
+// victim is written to the backing store first. Resident pages the guest maps itself (code, the
+// page table) must lie outside the pool. Translation goes through a small fully associative TLB
+// refilled by a page-table walk on a miss; its size is set with setTlbEntries.
+//
+// A page without P, a write to a page without W and an address beyond the virtual space set
+// MFR = PAGE_FAULT, PROTECTION_FAULT and 1 respectively, and the fault halts the machine: it is
+// not delivered to a guest handler, every run loop (GUI, GDB, CPU.run) stops while MFR is non-zero
+// and only reset or a debugger register write clears it. The faulting virtual address is left in
+// memory[3] and the address of the faulting instruction in memory[2], so from a debugger the page
+// table can be fixed, MFR cleared and execution resumed at memory[2].
+//
+// Only the CPU's own accesses are translated; Device 3 DMA transfers address physical memory.
+// Debug views follow suit by role: the GUI memory panel shows physical memory, while the GDB stub
+// shows the guest's view (PC, breakpoints and memory packets all virtual) through lookup, which
+// reads the page table without touching the TLB, the statistics or the fault state.
+public class VirtualMemory {
+
+    public static final int DEVICE = 4;
+    public static final int PAGE_BITS = 6;
+    public static final int PAGE_WORDS = 1 << PAGE_BITS;
+    public static final int VIRTUAL_PAGES = 64;
+    public static final int VIRTUAL_WORDS = VIRTUAL_PAGES * PAGE_WORDS;
+    public static final int PAGE_FAULT = 16;
+    public static final int PROTECTION_FAULT = 32;
+    public static final int DEFAULT_TLB_ENTRIES = 8;
+
+    public static final int PTE_VALID = 0x8000;
+    public static final int PTE_PRESENT = 0x4000;
+    public static final int PTE_WRITABLE = 0x2000;
+    public static final int PTE_DIRTY = 0x1000;
+    private static final int PTE_FRAME = 0x1F;
+
+    private final CPU cpu;
+    private boolean enabled;
+    private int ptbr, poolFirst, poolCount;
+    private final int[] programmed = new int[3];
+    private int phase;
+
+    // TLB: vpn -> frame, with the PTE's W and D bits cached
+    private int[] tlbPage = new int[0], tlbFrame = new int[0];
+    private boolean[] tlbWritable = new boolean[0], tlbDirty = new boolean[0];
+    private int tlbNext;
+    private long tlbHits, tlbMisses;
+
+    // Paging pool: page held by each pool frame (-1 = free), replaced FIFO
+    private int[] poolPage = new int[0];
+    private int poolHand;
+
+    private File backingFile;
+    private boolean temporaryBackingFile;
+    private RandomAccessFile backingStore;
+    private final int[] pageBuffer = new int[PAGE_WORDS];
+    private final byte[] pageBytes = new byte[PAGE_WORDS * 2];
+
+    public VirtualMemory(CPU cpu) {
+        this.cpu = cpu;
+        setTlbEntries(DEFAULT_TLB_ENTRIES);
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public long getTlbHits() { return tlbHits; }
+    public long getTlbMisses() { return tlbMisses; }
+    public int getTlbEntries() { return tlbPage.length; }
+
+    public void setTlbEntries(int entries) {
+        if (entries < 1 || entries > VIRTUAL_PAGES) throw new IllegalArgumentException("TLB entries must be 1.." + VIRTUAL_PAGES);
+        tlbPage = new int[entries];
+        tlbFrame = new int[entries];
+        tlbWritable = new boolean[entries];
+        tlbDirty = new boolean[entries];
+        flushTlb();
+    }
+
+    // Backing store for paged-out frames; a temporary file is created on first use if none is set
+    public void setBackingStore(File file) throws IOException {
+        close();
+        backingFile = file;
+    }
+
+    // Close the backing store and delete it if it was a temporary file; paging reopens one on demand
+    public void close() throws IOException {
+        if (backingStore != null) backingStore.close();
+        backingStore = null;
+        if (temporaryBackingFile) {
+            Files.deleteIfExists(backingFile.toPath());
+            backingFile = null;
+            temporaryBackingFile = false;
+        }
+    }
+
+    // Memory has just been cleared: forget residency and start from an empty backing store
+    public void reset() {
+        enabled = false; phase = 0;
+        poolPage = new int[0];
+        flushTlb();
+        try {
+            if (backingStore != null) backingStore.setLength(0);
+        } catch (IOException e) {
+            System.err.println("Backing store: " + e.getMessage());
+        }
+    }
+
+    private void flushTlb() {
+        Arrays.fill(tlbPage, -1);
+        tlbNext = 0;
+    }
+
+    // ------------------------------------------------------------
+    // Device 4 programming
+    // ------------------------------------------------------------
+    // OUT r,4; returns false if the page table or pool does not fit in physical memory
+    public boolean write(int value) {
+        programmed[phase++] = value & 0xFFFF;
+        if (phase < programmed.length) return true;
+        phase = 0;
+        int frames = cpu.memory.length / PAGE_WORDS;
+        if (programmed[2] != 0 && (programmed[0] + VIRTUAL_PAGES > cpu.memory.length
+                || programmed[1] + programmed[2] > frames)) return false;
+        releasePool();
+        flushTlb();
+        ptbr = programmed[0];
+        poolFirst = programmed[1];
+        poolCount = programmed[2];
+        enabled = poolCount != 0;
+        poolPage = new int[enabled ? poolCount : 0];
+        Arrays.fill(poolPage, -1);
+        poolHand = 0;
+        return true;
+    }
+
+    private void releasePool() {
+        for (int k = 0; k < poolPage.length; k++) {
+            if (poolPage[k] >= 0 && !evict(k)) return;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Translation
+    // ------------------------------------------------------------
+    // Physical address for a guest access, or -1 after raising the fault
+    public int translate(int va, boolean write) {
+        if (va < 0 || va >= VIRTUAL_WORDS) { cpu.memoryFault(1, va); return -1; }
+        int page = va >>> PAGE_BITS;
+        int slot = -1;
+        for (int k = 0; k < tlbPage.length; k++) {
+            if (tlbPage[k] == page) { slot = k; break; }
+        }
+        if (slot >= 0) {
+            tlbHits++;
+        } else {
+            tlbMisses++;
+            slot = refill(page, va);
+            if (slot < 0) return -1;
+        }
+        if (write) {
+            if (!tlbWritable[slot]) {
+                cpu.metrics.counter("vm.protectionFaults").increment();
+                cpu.memoryFault(PROTECTION_FAULT, va);
+                return -1;
+            }
+            if (!tlbDirty[slot]) {
+                int pteAddr = ptbr + page;
+                cpu.storeWord(pteAddr, cpu.memory[pteAddr] | PTE_DIRTY);
+                tlbDirty[slot] = true;
+            }
+        }
+        return (tlbFrame[slot] << PAGE_BITS) | (va & (PAGE_WORDS - 1));
+    }
+
+    // Debugger translation: the physical address of va if its page is resident, else -1. Never
+    // faults, pages or updates the TLB; a debugger write marks the page dirty so it is not lost.
+    public int lookup(int va, boolean write) {
+        if (va < 0 || va >= VIRTUAL_WORDS) return -1;
+        int pteAddr = ptbr + (va >>> PAGE_BITS);
+        int pte = cpu.memory[pteAddr];
+        if ((pte & PTE_VALID) == 0) return -1;
+        if (write && (pte & PTE_DIRTY) == 0) cpu.pokeMemory(pteAddr, pte | PTE_DIRTY);
+        return ((pte & PTE_FRAME) << PAGE_BITS) | (va & (PAGE_WORDS - 1));
+    }
+
+    // Page-table walk on a TLB miss, paging the page in if needed
+    private int refill(int page, int va) {
+        int pte = cpu.memory[ptbr + page];
+        if ((pte & PTE_PRESENT) == 0) {
+            cpu.metrics.counter("vm.pageFaults").increment();
+            cpu.memoryFault(PAGE_FAULT, va);
+            return -1;
+        }
+        if ((pte & PTE_VALID) == 0) {
+            pte = pageIn(page, va);
+            if (pte < 0) return -1;
+        }
+        int slot = tlbNext;
+        tlbNext = (tlbNext + 1) % tlbPage.length;
+        tlbPage[slot] = page;
+        tlbFrame[slot] = pte & PTE_FRAME;
+        tlbWritable[slot] = (pte & PTE_WRITABLE) != 0;
+        tlbDirty[slot] = (pte & PTE_DIRTY) != 0;
+        return slot;
+    }
+
+    // ------------------------------------------------------------
+    // Demand paging
+    // ------------------------------------------------------------
+    private int pageIn(int page, int va) {
+        int k = poolHand;
+        poolHand = (poolHand + 1) % poolPage.length;
+        if (poolPage[k] >= 0 && !evict(k)) return -1;
+        int frame = poolFirst + k;
+        try {
+            RandomAccessFile store = backingStore();
+            long offset = (long) page * pageBytes.length;
+            Arrays.fill(pageBytes, (byte) 0);
+            if (offset < store.length()) {
+                store.seek(offset);
+                store.read(pageBytes, 0, (int) Math.min(pageBytes.length, store.length() - offset));
+            }
+        } catch (IOException e) {
+            System.err.println("Backing store read failed: " + e.getMessage());
+            cpu.memoryFault(PAGE_FAULT, va);
+            return -1;
+        }
+        for (int w = 0; w < PAGE_WORDS; w++) {
+            pageBuffer[w] = ((pageBytes[2 * w] & 0xFF) << 8) | (pageBytes[2 * w + 1] & 0xFF);
+        }
+        cpu.storeBlock(frame << PAGE_BITS, pageBuffer, PAGE_WORDS);
+        poolPage[k] = page;
+        int pte = (cpu.memory[ptbr + page] & ~(PTE_FRAME | PTE_DIRTY)) | PTE_VALID | frame;
+        cpu.storeWord(ptbr + page, pte);
+        cpu.metrics.counter("vm.pageIns").increment();
+        return pte;
+    }
+
+    // Free pool frame k: write its page back if dirty, mark it non-resident, drop it from the TLB
+    private boolean evict(int k) {
+        int page = poolPage[k];
+        int pteAddr = ptbr + page;
+        int pte = cpu.memory[pteAddr];
+        if ((pte & PTE_DIRTY) != 0) {
+            int base = (poolFirst + k) << PAGE_BITS;
+            for (int w = 0; w < PAGE_WORDS; w++) {
+                pageBytes[2 * w] = (byte) (cpu.memory[base + w] >> 8);
+                pageBytes[2 * w + 1] = (byte) cpu.memory[base + w];
+            }
+            try {
+                RandomAccessFile store = backingStore();
+                store.seek((long) page * pageBytes.length);
+                store.write(pageBytes);
+            } catch (IOException e) {
+                System.err.println("Backing store write failed: " + e.getMessage());
+                cpu.memoryFault(PAGE_FAULT, page << PAGE_BITS);
+                return false;
+            }
+            cpu.metrics.counter("vm.pageOuts").increment();
+        }
+        cpu.storeWord(pteAddr, pte & ~(PTE_VALID | PTE_DIRTY | PTE_FRAME));
+        poolPage[k] = -1;
+        for (int s = 0; s < tlbPage.length; s++) {
+            if (tlbPage[s] == page) tlbPage[s] = -1;
+        }
+        return true;
+    }
+
+    private RandomAccessFile backingStore() throws IOException {
+        if (backingStore == null) {
+            if (backingFile == null) {
+                backingFile = File.createTempFile("c6461-swap", ".bin");
+                backingFile.deleteOnExit();
+                temporaryBackingFile = true;
+            }
+            backingStore = new RandomAccessFile(backingFile, "rw");
+            backingStore.setLength(0);
+        }
+        return backingStore;
+    }
+}